@@ -0,0 +1,26 @@
+package org.example;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * runs the ZFSMapperBenchmark once per thread count, jmh itself only takes one thread count per run
+ * arguments are the thread counts, default 1 4 16
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String[] threadCounts = args.length > 0 ? args : new String[]{"1", "4", "16"};
+        for (String threadCount : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(ZFSMapperBenchmark.class.getSimpleName())
+                    .threads(Integer.parseInt(threadCount))
+                    .result("jmh-result-" + threadCount + "-threads.json")
+                    .resultFormat(ResultFormatType.JSON);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * benchmarks of the coordination code of the ZFSMapper, independent of zfs. They run on the directory backend in a
+ * temp directory so they work on any linux machine, "dir-batched" puts the BatchingSnapshotBackend in front of it.
+ *
+ * Every thread works on its own file, so the success path does not conflict with the other threads. The conflict and
+ * rollback paths prepare their conflict in the setup of each invocation, only the appendToFile is measured.
+ * The rollback path rolls back the whole directory, with more than one thread it also aborts the transactions of the
+ * other threads, which is exactly what happens in the Validator as well. With shards=4 only the threads whose file is
+ * in the same shard are affected.
+ *
+ * the thread count is given to jmh with -t or by the BenchmarkRunner, which runs 1, 4 and 16 threads
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZFSMapperBenchmark {
+
+    @Param({"dir", "dir-batched"})
+    public String backend;
+
+    @Param({"64", "1024"})
+    public int files;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    private ShardRouter mapper;
+
+    private Path directory;
+    private final AtomicInteger writerIds = new AtomicInteger();
+
+    /**
+     * what zfs list -H -o name -t snapshot prints with one snapshot per file
+     */
+    private List<String> zfsListOutput;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("zfsmapper-bench");
+        Path root = directory.resolve("fs");
+        // the hot path without the TransactionJournal, it would leave a journal per trial behind as well
+        List<String> arguments = new ArrayList<>(List.of("backend=dir", "root=" + root + "/", "shards=" + shards, "journal=off"));
+        if (backend.equals("dir-batched")) {
+            arguments.add("batchWindow=200");
+        }
+        mapper = ShardRouter.fromArguments(new Arguments(arguments.toArray(new String[0])));
+        mapper.deleteAllSnapshot();
+        for (int i = 0; i < files; i++) {
+            mapper.createFileWithContent("file" + i + ".txt", "Initial content of file" + i);
+        }
+
+        zfsListOutput = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            zfsListOutput.add("mypool/myfs@Thread-" + i + "-file" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mapper.deleteAllSnapshot();
+        mapper.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * name and file of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        String threadName;
+        String fileName;
+
+        @Setup(Level.Trial)
+        public void setUp(ZFSMapperBenchmark benchmark) {
+            int id = benchmark.writerIds.getAndIncrement();
+            threadName = "Bench-" + id;
+            fileName = "file" + (id % benchmark.files) + ".txt";
+        }
+    }
+
+    /**
+     * the transaction opened by the notifyWrite benchmark, committed again after each invocation
+     */
+    @State(Scope.Thread)
+    public static class Notified {
+        TransactionInformation transactionInformation;
+
+        @TearDown(Level.Invocation)
+        public void commit(ZFSMapperBenchmark benchmark) {
+            benchmark.mapper.appendToFile(transactionInformation, "x");
+        }
+    }
+
+    /**
+     * a transaction nobody conflicts with
+     */
+    @State(Scope.Thread)
+    public static class Open {
+        TransactionInformation transactionInformation;
+
+        @Setup(Level.Invocation)
+        public void begin(ZFSMapperBenchmark benchmark, Writer writer) {
+            ShardRouter mapper = benchmark.mapper;
+            transactionInformation = mapper.notifyWrite(writer.threadName, writer.fileName);
+        }
+    }
+
+    /**
+     * a transaction whose file was committed to by another transaction, its commit rolls back
+     */
+    @State(Scope.Thread)
+    public static class Conflicting {
+        TransactionInformation transactionInformation;
+
+        @Setup(Level.Invocation)
+        public void begin(ZFSMapperBenchmark benchmark, Writer writer) {
+            ShardRouter mapper = benchmark.mapper;
+            transactionInformation = mapper.notifyWrite(writer.threadName, writer.fileName);
+            TransactionInformation other = mapper.notifyWrite(writer.threadName + "-other", writer.fileName);
+            mapper.appendToFile(other, "other");
+        }
+    }
+
+    /**
+     * a transaction whose snapshot was removed by the rollback of an older transaction
+     */
+    @State(Scope.Thread)
+    public static class Aborted {
+        TransactionInformation transactionInformation;
+
+        @Setup(Level.Invocation)
+        public void begin(ZFSMapperBenchmark benchmark, Writer writer) {
+            ShardRouter mapper = benchmark.mapper;
+            TransactionInformation older = mapper.notifyWrite(writer.threadName + "-older", writer.fileName);
+            transactionInformation = mapper.notifyWrite(writer.threadName, writer.fileName);
+            TransactionInformation other = mapper.notifyWrite(writer.threadName + "-other", writer.fileName);
+            mapper.appendToFile(other, "other");
+            mapper.appendToFile(older, "older");
+        }
+    }
+
+    @Benchmark
+    public TransactionInformation notifyWrite(Writer writer, Notified notified) {
+        notified.transactionInformation = mapper.notifyWrite(writer.threadName, writer.fileName);
+        return notified.transactionInformation;
+    }
+
+    @Benchmark
+    public Outcome appendToFileSuccess(Open open) {
+        return mapper.appendToFile(open.transactionInformation, "content");
+    }
+
+    @Benchmark
+    public Outcome appendToFileConflict(Aborted aborted) {
+        return mapper.appendToFile(aborted.transactionInformation, "content");
+    }
+
+    @Benchmark
+    public Outcome appendToFileRollback(Conflicting conflicting) {
+        return mapper.appendToFile(conflicting.transactionInformation, "content");
+    }
+
+    @Benchmark
+    public Set<String> getAllSnapshotsParsing() {
+        return ZFSCommandBackend.parseSnapshotList(zfsListOutput);
+    }
+
+    @Benchmark
+    public Map<Integer, String> getAllFiles() {
+        return mapper.getAllFiles();
+    }
+}
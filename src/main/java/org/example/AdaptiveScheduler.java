@@ -0,0 +1,244 @@
+package org.example;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * switches hot files from optimistic transactions to exclusive admission and back.
+ *
+ * for every file the scheduler keeps a conflict rate, an exponentially weighted mean over the outcomes of its
+ * transactions (1 = conflict, 0 = commit) that also decays with time, so a file nobody touched for a while cools down.
+ * Once the rate reaches hotRate the file is switched to AdmissionMode.EXCLUSIVE: new transactions queue on a fair
+ * semaphore instead of taking a snapshot and most likely rolling back. In exclusive mode there are no conflicts to count,
+ * a transaction that had to wait in the queue counts as one instead, as it would have conflicted optimistically.
+ * When the rate falls below coolRate and nobody holds or waits for the file it goes back to AdmissionMode.OPTIMISTIC.
+ * A transaction waits at most maxWait in the queue, f.e. if the owner of the file hangs, then it is admitted
+ * optimistically after all and takes a snapshot like before the switch
+ *
+ * transactions that started optimistically right before a switch can still commit next to an exclusive one, so the
+ * exclusive transactions are validated on commit as well, they just have nothing to roll back
+ *
+ * one scheduler can be shared by several mappers, as every file belongs to exactly one of them
+ */
+public class AdaptiveScheduler {
+
+    private final double hotRate;
+    private final double coolRate;
+    private final double alpha;
+    private final long halfLifeNanos;
+    private final long maxWaitNanos;
+
+    private final Map<String, FileState> files = new ConcurrentHashMap<>();
+
+    private final LongAdder optimisticAdmissions = new LongAdder();
+    private final LongAdder exclusiveAdmissions = new LongAdder();
+    private final LongAdder queuedAdmissions = new LongAdder();
+    private final LongAdder timedOutAdmissions = new LongAdder();
+    private final LongAdder switchesToExclusive = new LongAdder();
+    private final LongAdder switchesToOptimistic = new LongAdder();
+
+    /**
+     * @param hotRate conflict rate from which on a file is admitted exclusively, f.e. 0.3
+     * @param coolRate conflict rate below which the file is optimistic again, smaller than hotRate so it does not flap
+     * @param alpha weight of the newest outcome, f.e. 0.2
+     * @param halfLifeMillis time after which the rate of an untouched file is halved
+     * @param maxWaitMillis how long a transaction queues for a file before it is admitted optimistically
+     */
+    public AdaptiveScheduler(double hotRate, double coolRate, double alpha, long halfLifeMillis, long maxWaitMillis) {
+        if (coolRate > hotRate) {
+            throw new IllegalArgumentException("coolRate " + coolRate + " is above hotRate " + hotRate);
+        }
+        this.hotRate = hotRate;
+        this.coolRate = coolRate;
+        this.alpha = alpha;
+        this.halfLifeNanos = halfLifeMillis * 1_000_000;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * hotRate=0.3 (default) coolRate=0.1 alpha=0.2 halfLife=ms (default 1000) maxWait=ms (default 10000)
+     * @param arguments the parsed program arguments
+     * @return the scheduler
+     */
+    public static AdaptiveScheduler fromArguments(Arguments arguments) {
+        return new AdaptiveScheduler(
+                Double.parseDouble(arguments.get("hotRate", "0.3")),
+                Double.parseDouble(arguments.get("coolRate", "0.1")),
+                Double.parseDouble(arguments.get("alpha", "0.2")),
+                arguments.getInt("halfLife", 1000),
+                arguments.getInt("maxWait", 10000));
+    }
+
+    /**
+     * called by notifyWrite before it takes any lock, blocks while another transaction owns the file in exclusive mode,
+     * at most maxWait. An interrupt ends the wait as well, the interrupt flag stays set
+     * @param fileName well, the fileName
+     * @return true if the transaction was admitted exclusively and has to call finish after its commit, false if it is
+     * optimistic, also after waiting too long
+     */
+    public boolean admit(String fileName) {
+        FileState state = stateOf(fileName);
+        if (state.mode == AdmissionMode.OPTIMISTIC) {
+            optimisticAdmissions.increment();
+            return false;
+        }
+        boolean queued = !state.permit.tryAcquire();
+        if (queued) {
+            queuedAdmissions.increment();
+            boolean acquired;
+            try {
+                acquired = state.permit.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                // the file stays hot, the wait counts like a conflict
+                timedOutAdmissions.increment();
+                optimisticAdmissions.increment();
+                state.record(true);
+                return false;
+            }
+        }
+        exclusiveAdmissions.increment();
+        state.record(queued);
+        return true;
+    }
+
+    /**
+     * called by appendToFile after the commit or rollback
+     * @param fileName well, the fileName
+     * @param exclusive what admit returned, the file is given to the next one in the queue
+     * @param outcome the outcome of the transaction
+     */
+    public void finish(String fileName, boolean exclusive, Outcome outcome) {
+        FileState state = stateOf(fileName);
+        if (exclusive) {
+            state.permit.release();
+            state.maybeCoolDown();
+        } else {
+            state.record(outcome.isConflict());
+        }
+    }
+
+    /**
+     * @param fileName well, the fileName
+     * @return the current mode of the file
+     */
+    public AdmissionMode getMode(String fileName) {
+        FileState state = files.get(fileName);
+        return state == null ? AdmissionMode.OPTIMISTIC : state.mode;
+    }
+
+    /**
+     * @param fileName well, the fileName
+     * @return the conflict rate of the file, decayed to now
+     */
+    public double getConflictRate(String fileName) {
+        FileState state = files.get(fileName);
+        return state == null ? 0 : state.currentRate();
+    }
+
+    /**
+     * @return the files currently admitted exclusively with their conflict rate, sorted by name
+     */
+    public Map<String, Double> getExclusiveFiles() {
+        Map<String, Double> exclusive = new TreeMap<>();
+        files.forEach((fileName, state) -> {
+            if (state.mode == AdmissionMode.EXCLUSIVE) {
+                exclusive.put(fileName, state.currentRate());
+            }
+        });
+        return exclusive;
+    }
+
+    public long getOptimisticAdmissions() {
+        return optimisticAdmissions.sum();
+    }
+
+    public long getExclusiveAdmissions() {
+        return exclusiveAdmissions.sum();
+    }
+
+    /**
+     * @return exclusive admissions that had to wait for another transaction on the file
+     */
+    public long getQueuedAdmissions() {
+        return queuedAdmissions.sum();
+    }
+
+    /**
+     * @return queued admissions that gave up waiting and ran optimistically
+     */
+    public long getTimedOutAdmissions() {
+        return timedOutAdmissions.sum();
+    }
+
+    public long getSwitchesToExclusive() {
+        return switchesToExclusive.sum();
+    }
+
+    public long getSwitchesToOptimistic() {
+        return switchesToOptimistic.sum();
+    }
+
+    /**
+     * forgets all files and counters, meant to be called between runs while no transaction is running
+     */
+    public void reset() {
+        files.clear();
+        optimisticAdmissions.reset();
+        exclusiveAdmissions.reset();
+        queuedAdmissions.reset();
+        timedOutAdmissions.reset();
+        switchesToExclusive.reset();
+        switchesToOptimistic.reset();
+    }
+
+    private FileState stateOf(String fileName) {
+        return files.computeIfAbsent(fileName, name -> new FileState());
+    }
+
+    private class FileState {
+
+        private final Semaphore permit = new Semaphore(1, true);
+        private volatile AdmissionMode mode = AdmissionMode.OPTIMISTIC;
+        /**
+         * guarded by this
+         */
+        private double rate;
+        private long lastUpdate = System.nanoTime();
+
+        synchronized void record(boolean conflict) {
+            rate = currentRate();
+            lastUpdate = System.nanoTime();
+            rate += alpha * ((conflict ? 1 : 0) - rate);
+            if (mode == AdmissionMode.OPTIMISTIC && rate >= hotRate) {
+                mode = AdmissionMode.EXCLUSIVE;
+                switchesToExclusive.increment();
+            } else {
+                maybeCoolDown();
+            }
+        }
+
+        synchronized void maybeCoolDown() {
+            // only if nobody owns or waits for the file, a waiting transaction would run next to optimistic ones
+            if (mode == AdmissionMode.EXCLUSIVE && currentRate() < coolRate
+                    && permit.availablePermits() == 1 && !permit.hasQueuedThreads()) {
+                mode = AdmissionMode.OPTIMISTIC;
+                switchesToOptimistic.increment();
+            }
+        }
+
+        synchronized double currentRate() {
+            if (halfLifeNanos <= 0) {
+                return rate;
+            }
+            return rate * Math.pow(0.5, (double) (System.nanoTime() - lastUpdate) / halfLifeNanos);
+        }
+    }
+}
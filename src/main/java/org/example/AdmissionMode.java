@@ -0,0 +1,18 @@
+package org.example;
+
+/**
+ * how the AdaptiveScheduler lets a new transaction on a file start
+ */
+public enum AdmissionMode {
+
+    /**
+     * every transaction starts right away with its snapshot, conflicts are found on commit
+     */
+    OPTIMISTIC,
+
+    /**
+     * one transaction at a time per file, the others queue in order of arrival. The transaction owns the file until it
+     * commits, so it needs no snapshot
+     */
+    EXCLUSIVE
+}
@@ -0,0 +1,66 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * tiny parser for the program arguments, they are given as key=value pairs
+ * f.e. java org/example/Validator backend=dir root=/tmp/myfs
+ * an argument without "=" is treated as key=true
+ */
+public class Arguments {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * @param args the args as given to main
+     */
+    public Arguments(String[] args) {
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                values.put(arg, "true");
+            } else {
+                values.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+    }
+
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * @param key f.e. writers for writers=100,1000,10000
+     * @param defaultValue used if the key is missing
+     * @return the comma separated values
+     */
+    public List<String> getList(String key, String defaultValue) {
+        return List.of(get(key, defaultValue).split(","));
+    }
+
+    /**
+     * @return a copy with the value replaced, f.e. to create the backend of another backend name
+     */
+    public Arguments with(String key, String value) {
+        Arguments copy = new Arguments(new String[0]);
+        copy.values.putAll(values);
+        copy.values.put(key, value);
+        return copy;
+    }
+}
@@ -0,0 +1,66 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * the transactions of the ZFSMapper without blocking the caller. begin and commit run on virtual threads, so while
+ * a zfs command or a lock blocks only a virtual thread waits and the platform thread carrying it does other work.
+ * A service can keep tens of thousands of transactions open this way with only a few OS threads.
+ *
+ * the locks of the mapper are ReentrantLocks and waiting for a CancellationToken is a CountDownLatch, these do not pin
+ * the virtual thread to its carrier. Pinned are the synchronized parts: the UndoJournal (TransactionMode.UNDO_LOG
+ * without a TransactionJournal) writes and forces its file inside synchronized methods, so there a carrier waits for the disk, and the sharingLock of
+ * the snapshot sharing, which is only held to read or swap two fields
+ */
+public class AsyncZFSMapper implements AutoCloseable {
+
+    private final ShardRouter mapper;
+    private final ExecutorService executor;
+
+    /**
+     * uses a new virtual thread per begin and commit
+     * @param mapper executes the transactions
+     */
+    public AsyncZFSMapper(ShardRouter mapper) {
+        this(mapper, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * @param mapper executes the transactions
+     * @param executor runs begin and commit, closed together with this object
+     */
+    public AsyncZFSMapper(ShardRouter mapper, ExecutorService executor) {
+        this.mapper = mapper;
+        this.executor = executor;
+    }
+
+    /**
+     * ZFSMapper.notifyWrite on a virtual thread
+     * @param threadName the name of the writer, used for the snapshot name, so unique per open transaction on a file
+     * @param fileName well, the fileName
+     * @return completes with the transaction once its snapshot exists
+     */
+    public CompletableFuture<TransactionInformation> begin(String threadName, String fileName) {
+        return CompletableFuture.supplyAsync(() -> mapper.notifyWrite(threadName, fileName), executor);
+    }
+
+    /**
+     * ZFSMapper.appendToFile on a virtual thread
+     * @param transactionInformation the transaction returned by begin
+     * @param content the content to append
+     * @return completes with the outcome of the commit
+     */
+    public CompletableFuture<Outcome> commit(TransactionInformation transactionInformation, String content) {
+        return CompletableFuture.supplyAsync(() -> mapper.appendToFile(transactionInformation, content), executor);
+    }
+
+    /**
+     * waits for the running begins and commits
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
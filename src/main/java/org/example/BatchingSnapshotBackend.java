@@ -0,0 +1,256 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * group commit for snapshot operations. Instead of one zfs call per snapshot creation and per destroy, the requests of
+ * all threads are collected by a single flusher thread for at most batchWindow microseconds or until batchSize requests
+ * are there, then one zfs snapshot a b c and one zfs destroy fs@a,b,c is issued for the whole batch.
+ *
+ * Creation waits until the batch containing the snapshot was executed, as the transaction relies on the snapshot.
+ * Deletion returns immediately, the snapshot is gone with the next batch, deleteSnapshotAsync tells when that happened,
+ * its future fails if the backend reported a failure for the name.
+ * Everything that needs to see the real state
+ * (rollback, listing, deleting all) first waits until the pending requests are executed.
+ *
+ * Inside one batch the deletions are executed before the creations. A creation and a deletion of the same name can only
+ * be in the same batch in this order, as a snapshot can only be deleted after its creation returned
+ */
+public class BatchingSnapshotBackend implements SnapshotBackend {
+
+    private final SnapshotBackend backend;
+    private final long batchWindowNanos;
+    private final int batchSize;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * amount of single create and delete requests
+     */
+    private final AtomicLong requestedOperations = new AtomicLong();
+    /**
+     * amount of calls to the wrapped backend needed for them
+     */
+    private final AtomicLong backendCalls = new AtomicLong();
+
+    private enum Kind { CREATE, DELETE, FLUSH }
+
+    private static class Request {
+        private final Kind kind;
+        private final String nameOfSnapshot;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Request(Kind kind, String nameOfSnapshot) {
+            this.kind = kind;
+            this.nameOfSnapshot = nameOfSnapshot;
+        }
+    }
+
+    /**
+     * @param backend the backend executing the batches
+     * @param batchWindowMicros how long the flusher waits for more requests after the first one arrived
+     * @param batchSize maximum number of requests per batch
+     */
+    public BatchingSnapshotBackend(SnapshotBackend backend, long batchWindowMicros, int batchSize) {
+        this.backend = backend;
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.batchSize = batchSize;
+        Thread flusher = new Thread(this::flushLoop, "snapshot-batcher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public String getFileAccessPath() {
+        return backend.getFileAccessPath();
+    }
+
+    /**
+     * waits until the batch containing this snapshot is executed
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void createSnapshot(String nameOfSnapshot) {
+        submit(new Request(Kind.CREATE, nameOfSnapshot)).join();
+    }
+
+    /**
+     * returns immediately, the snapshot is deleted with the next batch
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void deleteSnapshot(String nameOfSnapshot) {
+        submit(new Request(Kind.DELETE, nameOfSnapshot));
+    }
+
+    @Override
+    public boolean deleteSnapshots(Collection<String> namesOfSnapshots) {
+        namesOfSnapshots.forEach(this::deleteSnapshot);
+        return true;
+    }
+
+    /**
+     * @return completed by the flusher after the batch containing the deletion was executed
+     */
+    @Override
+    public CompletableFuture<Void> deleteSnapshotAsync(String nameOfSnapshot) {
+        return submit(new Request(Kind.DELETE, nameOfSnapshot));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteSnapshotsAsync(Collection<String> namesOfSnapshots) {
+        return CompletableFuture.allOf(namesOfSnapshots.stream().map(this::deleteSnapshotAsync).toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public void rollbackToSnapshot(String nameOfSnapshot) {
+        flush();
+        backend.rollbackToSnapshot(nameOfSnapshot);
+    }
+
+    /**
+     * no flush needed, createSnapshot only returns once the snapshot exists
+     */
+    @Override
+    public Path getSnapshotFilePath(String nameOfSnapshot, String fileName) {
+        return backend.getSnapshotFilePath(nameOfSnapshot, fileName);
+    }
+
+    @Override
+    public Set<String> getAllSnapshots() {
+        flush();
+        return backend.getAllSnapshots();
+    }
+
+    @Override
+    public void deleteAllSnapshots() {
+        flush();
+        backend.deleteAllSnapshots();
+    }
+
+    @Override
+    public void beginWrite(String fileName) {
+        backend.beginWrite(fileName);
+    }
+
+    @Override
+    public void endWrite(String fileName) {
+        backend.endWrite(fileName);
+    }
+
+    @Override
+    public void showSnapshots() {
+        flush();
+        backend.showSnapshots();
+    }
+
+    /**
+     * waits until every request submitted before is executed
+     */
+    public void flush() {
+        submit(new Request(Kind.FLUSH, null)).join();
+    }
+
+    public long getRequestedOperations() {
+        return requestedOperations.get();
+    }
+
+    public long getBackendCalls() {
+        return backendCalls.get();
+    }
+
+    private CompletableFuture<Void> submit(Request request) {
+        if (request.kind != Kind.FLUSH) {
+            requestedOperations.incrementAndGet();
+        }
+        queue.add(request);
+        return request.done;
+    }
+
+    /**
+     * the flusher thread, collects a batch and executes it, forever
+     */
+    private void flushLoop() {
+        List<Request> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = System.nanoTime() + batchWindowNanos;
+                while (batch.size() < batchSize && batch.get(batch.size() - 1).kind != Kind.FLUSH) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                execute(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // the flusher must not die, the requests are failed instead so nobody waits forever
+                batch.forEach(request -> request.done.completeExceptionally(e));
+                e.printStackTrace();
+            }
+            batch.clear();
+        }
+    }
+
+    private void execute(List<Request> batch) {
+        List<String> deletes = new ArrayList<>();
+        List<String> creates = new ArrayList<>();
+        for (Request request : batch) {
+            if (request.kind == Kind.DELETE) {
+                deletes.add(request.nameOfSnapshot);
+            } else if (request.kind == Kind.CREATE) {
+                creates.add(request.nameOfSnapshot);
+            }
+        }
+        Set<String> failedDeletes = executeGroup(deletes, false);
+        executeGroup(creates, true);
+        for (Request request : batch) {
+            if (request.kind == Kind.DELETE && failedDeletes.contains(request.nameOfSnapshot)) {
+                request.done.completeExceptionally(new IllegalStateException("could not delete snapshot " + request.nameOfSnapshot));
+            } else {
+                request.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * one call for the whole group, if it fails the names are repeated one by one so a single broken name
+     * (f.e. a snapshot that already exists) does not fail all the others
+     * @return the names the backend reported a failure for
+     */
+    private Set<String> executeGroup(List<String> names, boolean create) {
+        if (names.isEmpty()) {
+            return Set.of();
+        }
+        backendCalls.incrementAndGet();
+        boolean success = create ? backend.createSnapshots(names) : backend.deleteSnapshots(names);
+        if (success) {
+            return Set.of();
+        }
+        if (names.size() == 1) {
+            return Set.copyOf(names);
+        }
+        Set<String> failed = new HashSet<>();
+        for (String name : names) {
+            backendCalls.incrementAndGet();
+            // the single name as a collection, only that reports whether it worked
+            success = create ? backend.createSnapshots(List.of(name)) : backend.deleteSnapshots(List.of(name));
+            if (!success) {
+                failed.add(name);
+            }
+        }
+        return failed;
+    }
+}
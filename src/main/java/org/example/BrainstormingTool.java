@@ -1,10 +1,12 @@
 package org.example;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class BrainstormingTool {
 
@@ -12,6 +14,8 @@ public class BrainstormingTool {
      * stores the fileOptions, they are updated on init and if a new file is created
      */
     private static Map<Integer, String> fileOptions = new HashMap<>();
+    private static ShardRouter mapper;
+    private static TransactionRunner runner;
 
     /**
      * This models the brainstorming tool.
@@ -31,10 +35,28 @@ public class BrainstormingTool {
      * thereby the rollback will always only revert the changes of the current transaction by program and gui
      *
      * won't terminate unless you do so, meaning you can endlessly test the behaviour
+     *
+     * the backend can be chosen with the arguments, f.e. backend=dir root=/tmp/myfs, default is zfs on mypool/myfs
+     * shards=N spreads the files over N datasets, see ShardRouter
+     * trace=file records every attempt, the trace can be replayed by the Validator with replay=file, see TransactionTrace
      */
 
     public static void main(String[] args) {
 
+        Arguments arguments = new Arguments(args);
+        mapper = ShardRouter.fromArguments(arguments);
+        // the append of the program is retried after the conflict with gedit, gedit is only opened on the first attempt
+        runner = new TransactionRunner(mapper, RetryPolicy.fromArguments(arguments, 3));
+        if (arguments.has("trace")) {
+            TransactionTrace.Writer trace = new TransactionTrace.Writer(Path.of(arguments.get("trace", "")));
+            runner.setTrace(trace);
+            // the tool is ended with ctrl+c, the trace is flushed on the way out
+            Runtime.getRuntime().addShutdownHook(new Thread(trace::close));
+        }
+        // the conflicts here come from gedit, the mapper only knows about them by looking at the file
+        mapper.setDetectExternalChanges(true);
+        // so the program learns that gedit saved the file right away and not only when gedit is closed
+        mapper.startWatching();
 
         Scanner scanner = new Scanner(System.in);
         while (true) {
@@ -68,17 +90,34 @@ public class BrainstormingTool {
     /**
      * starts programmatically a transaction by notifying zfs that transaction is going to occur simulating a
      * longer input time than what the second transaction -> in the gedit takes. Therefore if some changes
-     * are made in the ui and SAVED then a rollback will happen. If no changes are made by gedit, the timestamp
-     * last modified remains the same, therefore the outer thread will push its content, delete its snapshot and carry on
+     * are made in the ui and SAVED then a rollback will happen. If no changes are made by gedit, modification time
+     * and size of the file remain the same, therefore the outer thread will push its content, delete its snapshot and carry on.
+     * After the rollback the append of the program is tried again (retries=N, default 3), without opening gedit again
      * @param fileName well, the fileName
      */
     private static void conflictOnUserChangeBehaviour(String fileName) {
 
-        // simulate that someone is writing on this file
-        TransactionInformation transactionInformation= ZFSMapper.notifyWrite("mainThread", fileName);
+        // simulate that someone is writing on this file, the runner starts the transaction again if it conflicted
+        Outcome outcome = runner.run("mainThread", fileName, (transactionInformation, attempt) -> {
+            if (attempt == 0) {
+                openInGedit(fileName, transactionInformation.getCancellation());
+            }
+            //guaranteed conflict if the user of gedit changed the files contents
+            return "\njus append sth ";
+        });
+        System.out.println("append of the program: " + outcome);
+    }
+
+    /**
+     * opens gedit and waits until it is closed or the file is saved, then the transaction of the program is lost
+     * and it does not need to wait any longer, gedit stays open
+     * @param fileName well, the fileName
+     * @param cancellation the token of the transaction of the program
+     */
+    private static void openInGedit(String fileName, CancellationToken cancellation) {
         try {
             // Create a ProcessBuilder to open gedit with the specified file
-            ProcessBuilder processBuilder = new ProcessBuilder("gedit", "/mypool/myfs/"+fileName);
+            ProcessBuilder processBuilder = new ProcessBuilder("gedit", mapper.getFilePath(fileName));
 
             // Inherit IO so that gedit is displayed normally
             processBuilder.inheritIO();
@@ -86,24 +125,25 @@ public class BrainstormingTool {
             // Start the gedit process
             Process process = processBuilder.start();
 
-            // Wait for the gedit process to terminate
-            int exitCode = process.waitFor();
-            System.out.println("gedit terminated with exit code: " + exitCode);
+            // Wait for the gedit process to terminate or for the file to be saved
+            while (!process.waitFor(100, TimeUnit.MILLISECONDS)) {
+                if (cancellation.isCancelled()) {
+                    System.out.println("the program stops waiting for gedit: " + cancellation.getReason());
+                    return;
+                }
+            }
+            System.out.println("gedit terminated with exit code: " + process.exitValue());
 
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
-        //guaranteed conflict if the user of gedit changed the files contents
-        ZFSMapper.appendToFile(transactionInformation,"\njus append sth ");
-
-
     }
 
     /**
      * called after file creation to be an option for the next selection
      */
     private static void updateFiles(){
-        fileOptions = ZFSMapper.getAllFiles();
+        fileOptions = mapper.getAllFiles();
     }
 
     /**
@@ -144,7 +184,7 @@ public class BrainstormingTool {
                         System.out.println("no content is not possible, retry");
                         continue;
                     }
-                    ZFSMapper.createFileWithContent(line, "idea:\n"+content);
+                    mapper.createFileWithContent(line, "idea:\n"+content);
                     return;
                 }
 
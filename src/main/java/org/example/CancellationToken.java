@@ -0,0 +1,56 @@
+package org.example;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tells a running transaction that it is lost before it tries to commit. The mapper cancels it as soon as another
+ * transaction committed to the same file, a rollback destroyed its snapshot or another program changed the file
+ * (see ZFSMapper.startWatching). Whoever executes the transaction can then stop writing and start again right away
+ * instead of finding out in appendToFile after the whole writing time.
+ *
+ * appendToFile has to be called anyway, it rolls back or aborts the transaction as before
+ */
+public class CancellationToken {
+
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private volatile String reason;
+
+    /**
+     * only the first call counts
+     * @param reason why the transaction is lost, f.e. for logging
+     */
+    public void cancel(String reason) {
+        synchronized (this) {
+            if (this.reason != null) {
+                return;
+            }
+            this.reason = reason;
+        }
+        cancelled.countDown();
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * @return the reason given to cancel, null if not cancelled
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * sleeps like Thread.sleep but wakes up when the transaction is cancelled
+     * @param millis how long to sleep
+     * @return the millis that were not slept because of the cancellation, 0 if the whole time was slept
+     */
+    public long sleep(long millis) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (!cancelled.await(millis, TimeUnit.MILLISECONDS)) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()));
+    }
+}
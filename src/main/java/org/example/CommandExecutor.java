@@ -0,0 +1,39 @@
+package org.example;
+
+/**
+ * executes bash commands for the ZFSMapper. Either every command gets its own process (SpawningCommandExecutor, the
+ * original behaviour) or the commands are fed to a few long living shells (PersistentShellExecutor)
+ */
+public interface CommandExecutor extends AutoCloseable {
+
+    /**
+     * executes the command with bash and waits until it is done
+     * @param command the command, f.e. sudo zfs snapshot mypool/myfs@name
+     * @return exit status and output of the command
+     */
+    CommandResult execute(String command);
+
+    /**
+     * stops all processes held by the executor
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * commands=spawn starts a process per command, commands=persistent (default) uses shells=N long living shells
+     * @param arguments the parsed program arguments
+     * @return the executor
+     */
+    static CommandExecutor fromArguments(Arguments arguments) {
+        String mode = arguments.get("commands", "persistent");
+        switch (mode) {
+            case "spawn":
+                return new SpawningCommandExecutor();
+            case "persistent":
+                return new PersistentShellExecutor(arguments.getInt("shells", 4));
+            default:
+                throw new IllegalArgumentException("unknown command mode " + mode + ", use spawn or persistent");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * the outcome of a command executed by a CommandExecutor, stdout and stderr are merged into output
+ */
+public class CommandResult {
+
+    /**
+     * exit status of the command, -1 if it could not be executed at all
+     */
+    private final int exitCode;
+    /**
+     * the lines the command printed
+     */
+    private final List<String> output;
+
+    public CommandResult(int exitCode, List<String> output) {
+        this.exitCode = exitCode;
+        this.output = output;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public List<String> getOutput() {
+        return output;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * the appends to one file that are committed together by the group commit of the ZFSMapper.
+ * The first transaction that joins is the leader, it waits for the others during the group commit window, closes the
+ * group and commits all of them at once. The others wait for the outcome the leader gives them
+ */
+public class CommitGroup {
+
+    private final List<TransactionInformation> members = new ArrayList<>();
+    private final List<String> contents = new ArrayList<>();
+    private final List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @param transactionInformation the transaction that wants to commit
+     * @param content the content it appends
+     * @return completes with the outcome, null means the transaction conflicted and has to handle it itself.
+     * null if the group was closed already, the transaction has to join the next one
+     */
+    public synchronized CompletableFuture<Outcome> join(TransactionInformation transactionInformation, String content) {
+        if (closed) {
+            return null;
+        }
+        CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+        members.add(transactionInformation);
+        contents.add(content);
+        outcomes.add(outcome);
+        return outcome;
+    }
+
+    /**
+     * @param outcome as returned by join
+     * @return true if this is the first member, which commits the group
+     */
+    public synchronized boolean isLeader(CompletableFuture<Outcome> outcome) {
+        return outcomes.get(0) == outcome;
+    }
+
+    /**
+     * no one can join afterwards
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * only read after close
+     */
+    public synchronized List<TransactionInformation> getMembers() {
+        return members;
+    }
+
+    public synchronized List<String> getContents() {
+        return contents;
+    }
+
+    public synchronized List<CompletableFuture<Outcome>> getOutcomes() {
+        return outcomes;
+    }
+
+    public synchronized int size() {
+        return members.size();
+    }
+}
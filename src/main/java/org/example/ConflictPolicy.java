@@ -0,0 +1,47 @@
+package org.example;
+
+/**
+ * who loses when appendToFile finds that the file of a transaction was changed since it started.
+ *
+ * the age of a transaction is the start of its first attempt, the TransactionRunner keeps it over the retries, so a
+ * transaction that lost often enough becomes the oldest one and wins. The transactions that changed the file are the
+ * ones that committed to it since the conflicting transaction started
+ */
+public enum ConflictPolicy {
+
+    /**
+     * the transaction that finds the conflict rolls back to its snapshot (see RollbackMode), whatever it costs:
+     * the commits since then are undone and every newer transaction on the dataset is aborted
+     */
+    ROLLBACK,
+
+    /**
+     * older ones win. If the conflicting transaction is older than all transactions that changed the file, it wounds
+     * them: their changes are rolled back and it commits its own content on the restored file. Otherwise it waits for
+     * the older running transactions on the file to end and is aborted, nothing is rolled back
+     */
+    WOUND_WAIT,
+
+    /**
+     * nobody is ever rolled back, the conflicting transaction is aborted and the commits stay. An older one waits for
+     * the younger running transactions on the file to end before it is aborted, so its retry does not run into them
+     * again, a younger one dies right away
+     */
+    WAIT_DIE,
+
+    /**
+     * like ROLLBACK, but the dataset is rolled back to the newest snapshot in which the file still has the content
+     * the transaction started with, instead of its own snapshot. All snapshots in between survive, so less running
+     * transactions are aborted and less commits on other files are undone. With RollbackMode.FILE only the file is
+     * restored anyway, then this is ROLLBACK
+     */
+    MINIMAL_CASCADE;
+
+    /**
+     * @param name rollback, wound-wait, wait-die or minimal-cascade, case does not matter
+     * @return the policy
+     */
+    public static ConflictPolicy fromName(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,243 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * snapshots without zfs, works on any linux filesystem and does not spawn any process.
+ * The files live in root, a snapshot is a directory root.snapshots/name that holds a hardlink to every file of root.
+ * As a hardlink shares the data with the live file an append would change the snapshot as well, therefore
+ * beginWrite replaces a file that is still linked into a snapshot by a private copy before the mapper writes to it
+ * (copy on write, but per file). Taking a snapshot is then only one link per file.
+ *
+ * The order of the snapshots is kept in memory to implement rollback -r. On startup the existing snapshot directories
+ * are ordered by their creation time.
+ *
+ * Writes done by other programs than the mapper must replace the file (gedit does so) and not write into it,
+ * otherwise they change the snapshots too.
+ */
+public class DirectoryCopyBackend implements SnapshotBackend {
+
+    /**
+     * the directory of the files, ends with "/"
+     */
+    private final String pathFileAccess;
+    private final Path root;
+    /**
+     * the directory holding one directory per snapshot
+     */
+    private final Path snapshotRoot;
+
+    /**
+     * snapshot names, oldest first
+     */
+    private final List<String> snapshotOrder = new ArrayList<>();
+
+    /**
+     * writes of the mapper hold the read lock, snapshot creation and rollback the write lock.
+     * This makes a snapshot atomic like a zfs snapshot and guarantees that no file gets linked while it is written
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param pathFileAccess the directory the files live in, is created if missing
+     */
+    public DirectoryCopyBackend(String pathFileAccess) {
+        this.pathFileAccess = pathFileAccess.endsWith("/") ? pathFileAccess : pathFileAccess + "/";
+        this.root = Path.of(this.pathFileAccess);
+        this.snapshotRoot = Path.of(this.pathFileAccess.substring(0, this.pathFileAccess.length() - 1) + ".snapshots");
+        try {
+            Files.createDirectories(root);
+            Files.createDirectories(snapshotRoot);
+            try (Stream<Path> stream = Files.list(snapshotRoot)) {
+                stream.filter(Files::isDirectory)
+                        .sorted(Comparator.comparing(DirectoryCopyBackend::creationTime).thenComparing(Path::toString))
+                        .forEach(path -> snapshotOrder.add(path.getFileName().toString()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not initialize directory backend at " + pathFileAccess, e);
+        }
+    }
+
+    @Override
+    public String getFileAccessPath() {
+        return pathFileAccess;
+    }
+
+    /**
+     * links every file of root into a new snapshot directory
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void createSnapshot(String nameOfSnapshot) {
+        lock.writeLock().lock();
+        try {
+            if (snapshotOrder.contains(nameOfSnapshot)) {
+                System.err.println("snapshot " + nameOfSnapshot + " already exists");
+                return;
+            }
+            Path snapshot = snapshotRoot.resolve(nameOfSnapshot);
+            Files.createDirectory(snapshot);
+            for (Path file : listFiles(root)) {
+                Files.createLink(snapshot.resolve(file.getFileName()), file);
+            }
+            snapshotOrder.add(nameOfSnapshot);
+        } catch (IOException e) {
+            System.err.println("Failure on snapshot: " + nameOfSnapshot);
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteSnapshot(String nameOfSnapshot) {
+        lock.writeLock().lock();
+        try {
+            if (!snapshotOrder.remove(nameOfSnapshot)) {
+                System.err.println("could not find snapshot " + nameOfSnapshot);
+                return;
+            }
+            removeSnapshotDirectory(nameOfSnapshot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * deletes the newer snapshots and links the files of the snapshot back into root,
+     * files created after the snapshot are removed
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void rollbackToSnapshot(String nameOfSnapshot) {
+        lock.writeLock().lock();
+        try {
+            int index = snapshotOrder.indexOf(nameOfSnapshot);
+            if (index < 0) {
+                System.err.println("could not find snapshot " + nameOfSnapshot);
+                return;
+            }
+            while (snapshotOrder.size() > index + 1) {
+                removeSnapshotDirectory(snapshotOrder.remove(snapshotOrder.size() - 1));
+            }
+            for (Path file : listFiles(root)) {
+                Files.delete(file);
+            }
+            for (Path file : listFiles(snapshotRoot.resolve(nameOfSnapshot))) {
+                Files.createLink(root.resolve(file.getFileName()), file);
+            }
+        } catch (IOException e) {
+            System.err.println("Failure on rollback: " + nameOfSnapshot);
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * the hardlink inside the snapshot directory, it keeps the old data as the live file is copied before every write
+     * @param nameOfSnapshot the name of the snapshot
+     * @param fileName well, the fileName
+     * @return root.snapshots/nameOfSnapshot/fileName
+     */
+    @Override
+    public Path getSnapshotFilePath(String nameOfSnapshot, String fileName) {
+        return snapshotRoot.resolve(nameOfSnapshot).resolve(fileName);
+    }
+
+    @Override
+    public Set<String> getAllSnapshots() {
+        lock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(snapshotOrder);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAllSnapshots() {
+        lock.writeLock().lock();
+        try {
+            snapshotOrder.forEach(this::removeSnapshotDirectory);
+            snapshotOrder.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * if the file shares its data with a snapshot it is replaced by a copy, the snapshot keeps the old data
+     * @param fileName well, the fileName
+     */
+    @Override
+    public void beginWrite(String fileName) {
+        lock.readLock().lock();
+        Path file = root.resolve(fileName);
+        try {
+            if (Files.exists(file) && (int) Files.getAttribute(file, "unix:nlink") > 1) {
+                Path copy = root.resolve("." + fileName + "." + Thread.currentThread().threadId() + ".cow");
+                Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println("could not detach " + fileName + " from its snapshots");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void endWrite(String fileName) {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * deletes the directory of the snapshot with its links, the caller holds the write lock
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    private void removeSnapshotDirectory(String nameOfSnapshot) {
+        Path snapshot = snapshotRoot.resolve(nameOfSnapshot);
+        try {
+            for (Path file : listFiles(snapshot)) {
+                Files.delete(file);
+            }
+            Files.deleteIfExists(snapshot);
+        } catch (IOException e) {
+            System.err.println("Failure on deleting snapshot: " + nameOfSnapshot);
+            e.printStackTrace();
+        }
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                if (Files.isRegularFile(entry)) {
+                    files.add(entry);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static long creationTime(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
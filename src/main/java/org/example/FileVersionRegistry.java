@@ -0,0 +1,110 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * replaces the lastModified timestamp for the conflict detection. Every commit of the mapper increases the version of
+ * the file, a transaction remembers the version it started with and conflicts if the version changed. No syscall is
+ * needed and two commits in the same millisecond are still two versions.
+ *
+ * Writers outside of the mapper (f.e. gedit in the BrainstormingTool) do not change the version, for them the
+ * registry can additionally compare the modification time in nanoseconds and the size of the file
+ */
+public class FileVersionRegistry {
+
+    /**
+     * what the filesystem says about a file, only used if external changes are detected
+     */
+    public static class FileStamp {
+        private final boolean exists;
+        private final long lastModifiedNanos;
+        private final long size;
+
+        private FileStamp(boolean exists, long lastModifiedNanos, long size) {
+            this.exists = exists;
+            this.lastModifiedNanos = lastModifiedNanos;
+            this.size = size;
+        }
+
+        /**
+         * a missing or unreadable file never matches, not even another missing one
+         * @param other the stamp to compare with
+         * @return true if the file was not changed in between
+         */
+        public boolean matches(FileStamp other) {
+            return exists && other.exists && lastModifiedNanos == other.lastModifiedNanos && size == other.size;
+        }
+    }
+
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private volatile boolean detectExternalChanges;
+
+    /**
+     * @param detectExternalChanges true if the file attributes should be compared as well
+     */
+    public FileVersionRegistry(boolean detectExternalChanges) {
+        this.detectExternalChanges = detectExternalChanges;
+    }
+
+    public void setDetectExternalChanges(boolean detectExternalChanges) {
+        this.detectExternalChanges = detectExternalChanges;
+    }
+
+    public boolean isDetectingExternalChanges() {
+        return detectExternalChanges;
+    }
+
+    /**
+     * @param fileName well, the fileName
+     * @return the version the file has now
+     */
+    public long getVersion(String fileName) {
+        return versions.computeIfAbsent(fileName, name -> new AtomicLong()).get();
+    }
+
+    /**
+     * called after every write of the mapper
+     * @param fileName well, the fileName
+     * @return the new version of the file
+     */
+    public long bump(String fileName) {
+        return versions.computeIfAbsent(fileName, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * @param fileName well, the fileName
+     * @param path the file on disk
+     * @return the current stamp, null if external changes are not detected
+     */
+    public FileStamp readStamp(String fileName, Path path) {
+        if (!detectExternalChanges) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(true, attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), attributes.size());
+        } catch (IOException e) {
+            return new FileStamp(false, 0, 0);
+        }
+    }
+
+    /**
+     * the validation of a transaction, a plain read of the version and if enabled one stat of the file
+     * @param transactionInformation the transaction to check
+     * @param path the file on disk
+     * @return true if nobody wrote to the file since the transaction started
+     */
+    public boolean isUnchanged(TransactionInformation transactionInformation, Path path) {
+        if (getVersion(transactionInformation.getFileName()) != transactionInformation.getFileVersion()) {
+            return false;
+        }
+        FileStamp startStamp = transactionInformation.getFileStamp();
+        return startStamp == null || startStamp.matches(readStamp(transactionInformation.getFileName(), path));
+    }
+}
@@ -0,0 +1,89 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * picks the file a simulated transaction writes to. Uniform is what the Validator always did, but real traffic is
+ * skewed to a few hot files, which is where the conflicts and rollbacks come from
+ */
+public interface KeyDistribution {
+
+    /**
+     * @return the number of the next file, from 0 to files-1
+     */
+    int next();
+
+    /**
+     * distribution=uniform (default) | zipf | hotspot | sequential
+     * zipfExponent=0.99 file i is picked with a probability proportional to 1/(i+1)^exponent, 0 is uniform
+     * hotFraction=0.1 hotProbability=0.9 the first 10% of the files get 90% of the transactions, uniform within both parts
+     * sequential goes through the files one after another, shared by all threads
+     * @param arguments the parsed program arguments
+     * @param files the number of files
+     * @return the distribution
+     */
+    static KeyDistribution fromArguments(Arguments arguments, int files) {
+        String name = arguments.get("distribution", "uniform");
+        switch (name) {
+            case "uniform":
+                return uniform(files);
+            case "zipf":
+            case "zipfian":
+                return zipfian(files, Double.parseDouble(arguments.get("zipfExponent", "0.99")));
+            case "hotspot":
+                return hotspot(files, Double.parseDouble(arguments.get("hotFraction", "0.1")),
+                        Double.parseDouble(arguments.get("hotProbability", "0.9")));
+            case "sequential":
+                return sequential(files);
+            default:
+                throw new IllegalArgumentException("unknown distribution " + name + ", use uniform, zipf, hotspot or sequential");
+        }
+    }
+
+    static KeyDistribution uniform(int files) {
+        return () -> ThreadLocalRandom.current().nextInt(files);
+    }
+
+    /**
+     * the cumulative probabilities are computed once, every pick is a binary search over them
+     * @param files the number of files
+     * @param exponent the larger the more skewed, f.e. 0.99 like YCSB
+     */
+    static KeyDistribution zipfian(int files, double exponent) {
+        double[] cumulative = new double[files];
+        double sum = 0;
+        for (int i = 0; i < files; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        double total = sum;
+        return () -> {
+            int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble() * total);
+            // not found gives -(insertion point)-1, the insertion point is the first larger entry
+            return Math.min(files - 1, index >= 0 ? index : -index - 1);
+        };
+    }
+
+    /**
+     * @param files the number of files
+     * @param hotFraction share of the files that are hot, at least one
+     * @param hotProbability share of the transactions going to the hot files
+     */
+    static KeyDistribution hotspot(int files, double hotFraction, double hotProbability) {
+        int hotFiles = Math.max(1, Math.min(files, (int) Math.round(files * hotFraction)));
+        return () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (hotFiles == files || random.nextDouble() < hotProbability) {
+                return random.nextInt(hotFiles);
+            }
+            return hotFiles + random.nextInt(files - hotFiles);
+        };
+    }
+
+    static KeyDistribution sequential(int files) {
+        AtomicLong counter = new AtomicLong();
+        return () -> (int) (counter.getAndIncrement() % files);
+    }
+}
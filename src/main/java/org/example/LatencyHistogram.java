@@ -0,0 +1,130 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * thread safe latency histogram with fixed memory, the idea is taken from HdrHistogram.
+ * The values (nanoseconds) are counted in buckets, per power of two there are 2^SUB_BUCKET_BITS buckets of equal width,
+ * so every value is known with a relative error of about 3%, from 1ns up to Long.MAX_VALUE.
+ *
+ * recording is lock free, every thread counts into one of several stripes so threads do not fight over the same
+ * cache lines. Only reading the percentiles adds the stripes up.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * the values below SUB_BUCKETS have their own bucket, above each power of two has SUB_BUCKETS/2 new buckets
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * (SUB_BUCKETS / 2);
+    private static final int STRIPES = 8;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * @param nanos the measured latency, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = (int) (Thread.currentThread().threadId() & (STRIPES - 1));
+        stripes[stripe].incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @param startNanos System.nanoTime() at the start of the measurement
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percentile f.e. 99.9
+     * @return the upper bound of the bucket containing the percentile, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * sets everything back to 0, values recorded at the same time might get lost, meant to be called between runs
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        // the SUB_BUCKET_BITS highest bits of the value, the highest one is always set
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS + 1));
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * (SUB_BUCKETS / 2) + (mantissa - SUB_BUCKETS / 2);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / (SUB_BUCKETS / 2) + SUB_BUCKET_BITS;
+        long mantissa = (bucket - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        long bound = (mantissa + 1) << (exponent - SUB_BUCKET_BITS + 1);
+        // the last bucket ends at 2^63 which does not fit into a long
+        return bound <= 0 ? Long.MAX_VALUE : bound - 1;
+    }
+}
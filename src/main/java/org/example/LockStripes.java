@@ -0,0 +1,33 @@
+package org.example;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * a fixed amount of locks, a file name is hashed onto one of them. Two files can share a lock but
+ * transactions on unrelated files mostly don't wait for each other and the memory stays the same no matter how many files exist
+ */
+public class LockStripes {
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * @param numberOfStripes the amount of locks, more stripes mean less false sharing between files
+     */
+    public LockStripes(int numberOfStripes) {
+        locks = new ReentrantLock[numberOfStripes];
+        for (int i = 0; i < numberOfStripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param key f.e. the fileName
+     * @return the lock responsible for this key, always the same for the same key
+     */
+    public ReentrantLock lockFor(String key) {
+        int hash = key.hashCode();
+        // spread the bits as String hashes of file1.txt, file2.txt... only differ in few bits
+        hash ^= (hash >>> 16);
+        return locks[Math.floorMod(hash, locks.length)];
+    }
+}
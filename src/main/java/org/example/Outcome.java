@@ -0,0 +1,34 @@
+package org.example;
+
+/**
+ * the result of appendToFile, replaces the former int codes 0, 1 and 2
+ */
+public enum Outcome {
+
+    /**
+     * no conflict, the content was appended and the snapshot of the transaction deleted (former 0).
+     * With ConflictPolicy.WOUND_WAIT as well an older transaction that rolled back the younger ones and appended then
+     */
+    COMMITTED,
+
+    /**
+     * the snapshot of the transaction was deleted by the rollback of another transaction,
+     * nothing was written (former 1). Also a transaction that lost its conflict without rolling back,
+     * see ConflictPolicy, an exclusive one an optimistic commit from before the switch
+     * beat (see AdaptiveScheduler) and one whose write failed
+     */
+    ABORTED,
+
+    /**
+     * the file was changed since the transaction started, the dataset (with RollbackMode.FILE only the file) was
+     * rolled back to the snapshot of this transaction and nothing was written (former 2)
+     */
+    ROLLED_BACK;
+
+    /**
+     * @return true if the content was not written because of a conflict
+     */
+    public boolean isConflict() {
+        return this != COMMITTED;
+    }
+}
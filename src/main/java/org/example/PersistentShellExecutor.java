@@ -0,0 +1,137 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * keeps a few bash processes alive and writes the commands to their stdin instead of starting a process per command.
+ * After each command the shell prints a marker line with the exit status, everything read before the marker is the
+ * output of the command. A shell runs one command at a time, a caller waits until a shell is free.
+ *
+ * the command itself still forks inside the shell (sudo, zfs) but the expensive part, forking the jvm and starting
+ * bash, is paid only once per shell
+ */
+public class PersistentShellExecutor implements CommandExecutor {
+
+    /**
+     * the shells that are currently not executing a command
+     */
+    private final BlockingQueue<Shell> idleShells;
+    private final List<Shell> shells = new ArrayList<>();
+
+    /**
+     * @param numberOfShells how many commands can run at the same time
+     */
+    public PersistentShellExecutor(int numberOfShells) {
+        idleShells = new ArrayBlockingQueue<>(numberOfShells);
+        for (int i = 0; i < numberOfShells; i++) {
+            Shell shell = new Shell();
+            shells.add(shell);
+            idleShells.add(shell);
+        }
+    }
+
+    @Override
+    public CommandResult execute(String command) {
+        Shell shell;
+        try {
+            shell = idleShells.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new CommandResult(-1, List.of());
+        }
+        try {
+            return shell.execute(command);
+        } finally {
+            idleShells.add(shell);
+        }
+    }
+
+    @Override
+    public void close() {
+        shells.forEach(Shell::stop);
+    }
+
+    /**
+     * a single bash process, restarted if it died (f.e. because a command called exit)
+     */
+    private static class Shell {
+
+        /**
+         * printed after each command followed by the exit status, random so no command output looks like it
+         */
+        private final String marker = "__done_" + UUID.randomUUID().toString().replace("-", "") + "__";
+        private Process process;
+        private Writer stdin;
+        private BufferedReader stdout;
+
+        private Shell() {
+            start();
+        }
+
+        private void start() {
+            try {
+                ProcessBuilder processBuilder = new ProcessBuilder("bash");
+                processBuilder.redirectErrorStream(true);
+                process = processBuilder.start();
+                stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+                stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.err.println("could not start shell");
+                e.printStackTrace();
+                process = null;
+            }
+        }
+
+        private CommandResult execute(String command) {
+            if (process == null || !process.isAlive()) {
+                start();
+                if (process == null) {
+                    return new CommandResult(-1, List.of());
+                }
+            }
+            List<String> output = new ArrayList<>();
+            try {
+                // the command must not read the stdin of the shell as that is where the next commands come from
+                stdin.write("{ " + command + "\n} </dev/null 2>&1; printf '%s%d\\n' '" + marker + "' \"$?\"\n");
+                stdin.flush();
+                String line;
+                while ((line = stdout.readLine()) != null) {
+                    int index = line.indexOf(marker);
+                    if (index < 0) {
+                        output.add(line);
+                        continue;
+                    }
+                    // output without a line break at its end ends up in front of the marker
+                    if (index > 0) {
+                        output.add(line.substring(0, index));
+                    }
+                    return new CommandResult(Integer.parseInt(line.substring(index + marker.length()).trim()), output);
+                }
+                // end of stream, the shell is gone
+                System.err.println("shell terminated on command: " + command);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Failure on command: " + command);
+                e.printStackTrace();
+            }
+            stop();
+            return new CommandResult(-1, output);
+        }
+
+        private void stop() {
+            if (process != null) {
+                process.destroy();
+                process = null;
+            }
+        }
+    }
+}
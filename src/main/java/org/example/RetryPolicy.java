@@ -0,0 +1,89 @@
+package org.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * how often and after which pause the TransactionRunner starts a conflicted transaction again
+ */
+public class RetryPolicy {
+
+    /**
+     * the pause before a retry
+     */
+    public enum Backoff {
+        /**
+         * retry at once
+         */
+        NONE,
+        /**
+         * base * 2^retry, capped at max
+         */
+        EXPONENTIAL,
+        /**
+         * a random pause between 0 and the exponential one ("full jitter"), so the transactions that conflicted by the
+         * same rollback do not all come back at the same time and conflict again
+         */
+        JITTERED
+    }
+
+    /**
+     * the original behaviour, a conflicted write is lost
+     */
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(0, Backoff.NONE, 0, 0);
+
+    private final int maxRetries;
+    private final Backoff backoff;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxRetries how often a transaction is started again after a conflict, 0 = never
+     * @param backoff how the pause grows
+     * @param baseDelayMillis the pause before the first retry
+     * @param maxDelayMillis the longest pause
+     */
+    public RetryPolicy(int maxRetries, Backoff backoff, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * retries=N (default 0) backoff=none|exponential|jitter (default jitter) backoffBase=ms (default 10)
+     * backoffMax=ms (default 1000)
+     * @param arguments the parsed program arguments
+     * @param defaultRetries the retries if none are given
+     * @return the policy
+     */
+    public static RetryPolicy fromArguments(Arguments arguments, int defaultRetries) {
+        String name = arguments.get("backoff", "jitter");
+        Backoff backoff = name.equals("jitter") ? Backoff.JITTERED : Backoff.valueOf(name.toUpperCase());
+        return new RetryPolicy(arguments.getInt("retries", defaultRetries), backoff,
+                arguments.getInt("backoffBase", 10), arguments.getInt("backoffMax", 1000));
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param retry the number of the retry, starting at 0
+     * @return the pause before it in ms
+     */
+    public long delayMillis(int retry) {
+        if (backoff == Backoff.NONE) {
+            return 0;
+        }
+        long exponential = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+        if (backoff == Backoff.EXPONENTIAL) {
+            return exponential;
+        }
+        return ThreadLocalRandom.current().nextLong(exponential + 1);
+    }
+
+    @Override
+    public String toString() {
+        return maxRetries + " retries, " + backoff + " backoff " + baseDelayMillis + "-" + maxDelayMillis + "ms";
+    }
+}
@@ -0,0 +1,27 @@
+package org.example;
+
+/**
+ * what appendToFile does when it finds a conflict
+ */
+public enum RollbackMode {
+
+    /**
+     * zfs rollback -r of the whole dataset, every newer snapshot is destroyed and its transaction aborted
+     */
+    DATASET,
+
+    /**
+     * only the file of the transaction is copied back from the snapshot (.zfs/snapshot/name/file), the snapshots
+     * of the transactions on other files stay and these transactions go on. Newer transactions on the same file
+     * are aborted, they started on content that is gone now
+     */
+    FILE;
+
+    /**
+     * @param name dataset or file, case does not matter
+     * @return the mode
+     */
+    public static RollbackMode fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,250 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * one parameter configuration of the Validator, loaded from a scenario file instead of the hard coded lists.
+ *
+ * a scenario file has one scenario per line, given as key=value pairs like the program arguments, lines starting
+ * with # are comments. f.e.
+ *   name=few_files threads=3 files=9 mean=2000 std=200
+ *   name=many_files threads=50 files=2500 mean=600 std=400 rollback=file shards=4
+ * threads, files, mean, std (ms) and iterations (per thread, default 150) describe the simulation, distribution=
+ * picks the files (see KeyDistribution), every other key overrides the program argument of the same name for this
+ * scenario only (backend, shards, rollback, retries...)
+ *
+ * trace=prefix records every attempt to prefix-name.trace, replay=file replays a recorded trace instead: every thread
+ * of the trace starts its attempts at the recorded times on the recorded files and writes as long as recorded,
+ * without retries as the retries are in the trace already. The outcomes are compared with the recorded ones
+ *
+ * every scenario runs on its own dataset, the child dataset dataset/name mounted at root/name/ (created if missing),
+ * for the directory backend the directory root/name/. So scenarios can run at the same time without rolling back
+ * each other, and each one has its own mapper, metrics and runner
+ */
+public class Scenario {
+
+    private final String name;
+    private final Arguments arguments;
+    private final int threads;
+    private final int files;
+    private final double meanWritingTime;
+    private final double stVarWritingTime;
+    private final int iterations;
+    private final KeyDistribution distribution;
+    private final boolean earlyAbort;
+
+    /**
+     * @param name unique name, used for the dataset of the scenario
+     * @param arguments the program arguments with the ones of the scenario on top
+     */
+    public Scenario(String name, Arguments arguments) {
+        if (!name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("scenario name " + name + " may only contain letters, digits, _ and -");
+        }
+        this.name = name;
+        this.arguments = arguments;
+        this.threads = arguments.getInt("threads", 3);
+        this.files = arguments.getInt("files", 6);
+        this.meanWritingTime = arguments.getInt("mean", 2000);
+        this.stVarWritingTime = arguments.getInt("std", 1500);
+        this.iterations = arguments.getInt("iterations", 150);
+        this.distribution = KeyDistribution.fromArguments(arguments, files);
+        this.earlyAbort = arguments.getBoolean("earlyAbort", true);
+    }
+
+    /**
+     * @param file the scenario file, see above
+     * @param defaults the program arguments, the scenarios override them
+     * @return the scenarios in the order of the file
+     */
+    public static List<Scenario> load(Path file, Arguments defaults) throws IOException {
+        List<Scenario> scenarios = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Arguments arguments = defaults;
+            for (String pair : line.split("\\s+")) {
+                int index = pair.indexOf('=');
+                arguments = index < 0 ? arguments.with(pair, "true") : arguments.with(pair.substring(0, index), pair.substring(index + 1));
+            }
+            scenarios.add(new Scenario(arguments.get("name", "scenario" + (i + 1)), arguments));
+        }
+        return scenarios;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the arguments of the scenario pointing to its own dataset
+     */
+    Arguments isolatedArguments() {
+        String backend = arguments.get("backend", "zfs");
+        String root = arguments.get("root", backend.equals("zfs") ? "/mypool/myfs/" : "/tmp/myfs/");
+        root = root.endsWith("/") ? root : root + "/";
+        return arguments
+                .with("root", root + name + "/")
+                .with("dataset", arguments.get("dataset", "mypool/myfs") + "/" + name)
+                .with("createDataset", "true");
+    }
+
+    /**
+     * runs the simulation, the threads write to random files like the Validator
+     * @return the results, always the same keys in the same order
+     */
+    public Map<String, Object> run() throws IOException {
+        List<TransactionTrace.Entry> replay = arguments.has("replay") ? TransactionTrace.read(Path.of(arguments.get("replay", ""))) : null;
+        ShardRouter mapper = ShardRouter.fromArguments(isolatedArguments());
+        TransactionTrace.Writer trace = arguments.has("trace") ? new TransactionTrace.Writer(Path.of(arguments.get("trace", "") + "-" + name + ".trace")) : null;
+        try {
+            mapper.startReconcile(arguments.getInt("reconcile", 30));
+            TransactionRunner runner = new TransactionRunner(mapper,
+                    replay == null ? RetryPolicy.fromArguments(arguments, 0) : RetryPolicy.NO_RETRY);
+            runner.setTrace(trace);
+            if (arguments.getBoolean("deleteAllSnapshots", false)) {
+                mapper.deleteAllSnapshot();
+            }
+            Map<String, List<TransactionTrace.Entry>> replayPerThread = new LinkedHashMap<>();
+            List<String> fileNames = new ArrayList<>();
+            if (replay == null) {
+                for (int i = 0; i < files; i++) {
+                    fileNames.add("file" + i + ".txt");
+                }
+                for (int y = 0; y < threads; y++) {
+                    replayPerThread.put("Thread-" + y, null);
+                }
+            } else {
+                for (TransactionTrace.Entry entry : replay) {
+                    replayPerThread.computeIfAbsent(entry.threadName(), key -> new ArrayList<>()).add(entry);
+                    if (!fileNames.contains(entry.fileName())) {
+                        fileNames.add(entry.fileName());
+                    }
+                }
+            }
+            for (String fileName : fileNames) {
+                mapper.createFileWithContent(fileName, "Initial content of " + fileName);
+            }
+            mapper.getMetrics().reset();
+            if (replay == null) {
+                System.out.println(name + ": started with threads=" + threads + " files=" + files + " mean=" + meanWritingTime
+                        + "ms std=" + stVarWritingTime + "ms iterations=" + iterations + " distribution=" + arguments.get("distribution", "uniform"));
+            } else {
+                System.out.println(name + ": replaying " + replay.size() + " attempts of " + replayPerThread.size() + " threads on "
+                        + fileNames.size() + " files from " + arguments.get("replay", ""));
+            }
+
+            LongAdder sameOutcome = new LongAdder();
+            WriterSimulation simulation = new WriterSimulation(runner, mapper.getMetrics(), distribution, meanWritingTime,
+                    stVarWritingTime, earlyAbort, 0);
+            long start = System.nanoTime();
+            Map<String, Runnable> writers = new LinkedHashMap<>();
+            for (Map.Entry<String, List<TransactionTrace.Entry>> writer : replayPerThread.entrySet()) {
+                String threadName = writer.getKey();
+                writers.put(name + "-" + threadName, replay == null
+                        ? () -> simulation.runTransactions(threadName, iterations)
+                        : () -> replayTransactions(runner, threadName, writer.getValue(), start, sameOutcome));
+            }
+            WriterSimulation.runThreads(writers);
+            long elapsedNanos = System.nanoTime() - start;
+            Map<String, Object> results = results(mapper, runner, elapsedNanos);
+            results.put("threads", replayPerThread.size());
+            results.put("numberOfFiles", fileNames.size());
+            results.put("TA_Attempted", replay == null ? threads * iterations : replay.size());
+            results.put("replayed_same_outcome", replay == null ? -1 : sameOutcome.sum());
+            System.out.println(name + ": done in " + results.get("elapsed_s") + "s, commits/s " + results.get("commits_per_sec")
+                    + ", conflict rate " + results.get("conflict_Rate") + "%");
+            return results;
+        } finally {
+            mapper.close();
+            if (trace != null) {
+                trace.close();
+            }
+        }
+    }
+
+    /**
+     * the attempts of one thread of the trace at their recorded times, if the replay is behind it starts right away
+     */
+    private void replayTransactions(TransactionRunner runner, String threadName, List<TransactionTrace.Entry> entries,
+                                    long startNanos, LongAdder sameOutcome) {
+        for (TransactionTrace.Entry entry : entries) {
+            long wait = startNanos + entry.startMicros() * 1000 - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Outcome outcome = runner.run(threadName, entry.fileName(), (transactionInformation, attempt) -> {
+                LockSupport.parkNanos(entry.durationMicros() * 1000);
+                return threadName + " replays an attempt started at " + entry.startMicros() + "us";
+            });
+            if (outcome == entry.outcome()) {
+                sameOutcome.increment();
+            }
+        }
+    }
+
+    private Map<String, Object> results(ShardRouter mapper, TransactionRunner runner, long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        TransactionMetrics metrics = mapper.getMetrics();
+        AdaptiveScheduler scheduler = mapper.getScheduler();
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("scenario", name);
+        results.put("backend", arguments.get("backend", "zfs"));
+        results.put("threads", threads);
+        results.put("numberOfFiles", files);
+        results.put("meanWritingTime", meanWritingTime);
+        results.put("stVarWritingTime", stVarWritingTime);
+        results.put("iterations", iterations);
+        results.put("distribution", arguments.has("replay") ? "replay" : arguments.get("distribution", "uniform"));
+        results.put("shards", mapper.getShards().size());
+        results.put("rollbackMode", mapper.getShards().get(0).getRollbackMode());
+        results.put("transactionMode", mapper.getShards().get(0).getTransactionMode());
+        results.put("conflictPolicy", mapper.getShards().get(0).getConflictPolicy());
+        results.put("TA_Attempted", threads * iterations);
+        results.put("attempts", runner.getAttempts());
+        results.put("success_Writes", runner.getCommits());
+        results.put("conflicts", runner.getConflicts());
+        results.put("rollbacks", runner.getAttempts(Outcome.ROLLED_BACK));
+        results.put("conflict_Rate", runner.getAttempts() == 0 ? 0 : (double) runner.getConflicts() / runner.getAttempts() * 100);
+        results.put("commits_per_sec", runner.getGoodput(elapsedNanos));
+        results.put("attempts_per_sec", runner.getAttempts() / seconds);
+        results.put("retries_per_commit", runner.getRetriesPerCommit());
+        results.put("gave_up", runner.getGaveUp());
+        results.put("mean_Rollback", mapper.calculateMeanTime());
+        results.put("victims_per_Rollback", metrics.getMeanRollbackVictims());
+        results.put("snapshots_per_TA", runner.getAttempts() == 0 ? 0
+                : (double) metrics.get(TransactionPhase.SNAPSHOT_CREATE).getCount() / runner.getAttempts());
+        results.put("commits_per_group", metrics.getMeanCommitGroupSize());
+        results.put("early_aborts", metrics.getEarlyAborts());
+        results.put("saved_write_s", metrics.getSavedWriteMillis() / 1000.0);
+        results.put("discarded_work_s", metrics.getDiscardedWorkSeconds());
+        results.put("live_snapshots_peak", metrics.getPeakLiveSnapshots());
+        results.put("reaped_TA", metrics.getReapedTransactions());
+        results.put("reaped_snapshots", metrics.getReapedSnapshots());
+        results.put("budget_waits", metrics.get(TransactionPhase.SNAPSHOT_BUDGET).getCount());
+        results.put("exclusive_admissions", scheduler == null ? 0 : scheduler.getExclusiveAdmissions());
+        results.put("mode_switches", scheduler == null ? 0 : scheduler.getSwitchesToExclusive() + scheduler.getSwitchesToOptimistic());
+        for (TransactionPhase phase : TransactionPhase.values()) {
+            LatencyHistogram histogram = metrics.get(phase);
+            for (double percentile : TransactionMetrics.PERCENTILES) {
+                String key = phase + "_p" + String.valueOf(percentile).replace(".0", "").replace(".", "") + "_ms";
+                results.put(key, histogram.getPercentileNanos(percentile) / 1_000_000.0);
+            }
+            results.put(phase + "_max_ms", histogram.getMaxNanos() / 1_000_000.0);
+        }
+        results.put("replayed_same_outcome", -1);
+        results.put("elapsed_s", seconds);
+        return results;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * writes the results of the scenarios as soon as each one is done, one CSV row and one JSON line (prefix.jsonl)
+ * per scenario, so a long sweep can be looked at while it runs and nothing is lost if it is stopped.
+ * The CSV header is taken from the first result, all results of Scenario.run have the same keys
+ */
+public class ScenarioReport implements AutoCloseable {
+
+    private final FileWriter csv;
+    private final FileWriter json;
+    private boolean headerWritten;
+
+    /**
+     * @param prefix the files prefix.csv and prefix.jsonl are overwritten
+     */
+    public ScenarioReport(String prefix) {
+        try {
+            csv = new FileWriter(prefix + ".csv");
+            json = new FileWriter(prefix + ".jsonl");
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not create the result files " + prefix, e);
+        }
+    }
+
+    /**
+     * @param results as returned by Scenario.run
+     */
+    public synchronized void write(Map<String, Object> results) throws IOException {
+        if (!headerWritten) {
+            csv.append(String.join(",", results.keySet())).append("\n");
+            headerWritten = true;
+        }
+        csv.append(results.values().stream().map(String::valueOf).collect(Collectors.joining(","))).append("\n");
+        csv.flush();
+        json.append(results.entrySet().stream()
+                .map(entry -> quote(entry.getKey()) + ":" + toJson(entry.getValue()))
+                .collect(Collectors.joining(",", "{", "}"))).append("\n");
+        json.flush();
+    }
+
+    private static String toJson(Object value) {
+        if (value instanceof Double number) {
+            return number.isNaN() || number.isInfinite() ? "null" : number.toString();
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        return quote(String.valueOf(value));
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            csv.close();
+            json.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
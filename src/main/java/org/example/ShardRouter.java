@@ -0,0 +1,290 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * spreads the files over several datasets, every dataset (shard) has its own ZFSMapper. A file always belongs to the
+ * same shard, given by the hash of its name.
+ *
+ * A rollback -r only destroys the newer snapshots of its own dataset, so a conflict aborts only the transactions of
+ * the files in the same shard instead of all running transactions. The dataset lock of a mapper is per shard as well,
+ * with N shards a rollback blocks roughly 1/N of the transactions.
+ *
+ * with one shard this is the plain ZFSMapper on the dataset itself
+ */
+public class ShardRouter implements AutoCloseable {
+
+    private final List<ZFSMapper> shards;
+    private final TransactionMetrics metrics;
+    /**
+     * the journals opened by fromArguments, closed with the router
+     */
+    private final List<UndoJournal> journals = new ArrayList<>();
+    private final List<TransactionJournal> transactionJournals = new ArrayList<>();
+    /**
+     * shared by all shards, a file belongs to one shard only, null if off
+     */
+    private AdaptiveScheduler scheduler;
+
+    /**
+     * @param shards the mappers, one per dataset, should share one TransactionMetrics
+     * @param metrics the metrics shared by the shards
+     */
+    public ShardRouter(List<ZFSMapper> shards, TransactionMetrics metrics) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        this.shards = List.copyOf(shards);
+        this.metrics = metrics;
+    }
+
+    /**
+     * one shard on the given backend
+     * @param backend takes the snapshots of the only dataset
+     */
+    public ShardRouter(SnapshotBackend backend) {
+        this(new TransactionMetrics(), List.of(backend));
+    }
+
+    private ShardRouter(TransactionMetrics metrics, List<SnapshotBackend> backends) {
+        this(backends.stream().map(backend -> new ZFSMapper(backend, metrics)).toList(), metrics);
+    }
+
+    /**
+     * builds the shards from the program arguments
+     * shards=N (default 1) the number of datasets, see SnapshotBackend.fromArguments for their names
+     * force=true forces every commit to disk, external=true detects changes of other programs
+     * rollback=dataset|file what a conflict rolls back, see RollbackMode
+     * transactions=snapshot|undo how transactions are undone, see TransactionMode, the undo journals are kept in
+     * undoJournal=dir (default ~/.zfsmapper), one per shard. With journal= the appends are recorded in the
+     * TransactionJournal and the undo journals only undo what a run without it left behind
+     * journal=dir (default off, f.e. journal=~/.zfsmapper) keeps a TransactionJournal per shard in dir, a start after a
+     * crash only destroys the snapshots the crashed run left behind. The journal file is deleted on a clean close
+     * groupCommit=micros (default 0 = off) commits the appends to the same file arriving within the window together
+     * shareSnapshots=true lets transactions reuse the last snapshot while no file changed, see ZFSMapper.setShareSnapshots
+     * watch=true (default with external=true) cancels running transactions as soon as another program changes their file
+     * conflictPolicy=rollback|wound-wait|wait-die|minimal-cascade who loses a conflict, see ConflictPolicy
+     * lease=ms (default 0 = off) ends transactions running longer and destroys their snapshots every reapEvery=ms
+     * (default lease/4), see ZFSMapper.startReaper. maxSnapshots=N (default 0 = no limit) lets notifyWrite wait while
+     * N snapshots of transactions exist, spread evenly over the shards, see ZFSMapper.setSnapshotBudget
+     * adaptive=true admits the transactions of hot files one after another, see AdaptiveScheduler.fromArguments for its parameters
+     * @param arguments the parsed program arguments
+     * @return the router over all shards
+     */
+    public static ShardRouter fromArguments(Arguments arguments) {
+        int numberOfShards = arguments.getInt("shards", 1);
+        List<SnapshotBackend> backends = new ArrayList<>();
+        for (int i = 0; i < numberOfShards; i++) {
+            backends.add(SnapshotBackend.fromArguments(arguments, i, numberOfShards));
+        }
+        ShardRouter router = new ShardRouter(new TransactionMetrics(), backends);
+        String transactionJournalDirectory = arguments.get("journal", "off");
+        if (!transactionJournalDirectory.equals("off")) {
+            for (ZFSMapper shard : router.shards) {
+                String journalName = shard.getFileAccessPath().replaceAll("[^A-Za-z0-9]+", "_") + ".journal";
+                TransactionJournal transactionJournal = new TransactionJournal(Path.of(transactionJournalDirectory).resolve(journalName));
+                router.transactionJournals.add(transactionJournal);
+                shard.setTransactionJournal(transactionJournal);
+            }
+        }
+        router.setForceOnWrite(arguments.getBoolean("force", false));
+        router.setDetectExternalChanges(arguments.getBoolean("external", false));
+        if (arguments.getBoolean("watch", arguments.getBoolean("external", false))) {
+            router.startWatching();
+        }
+        router.setRollbackMode(RollbackMode.fromName(arguments.get("rollback", "dataset")));
+        TransactionMode transactionMode = TransactionMode.fromName(arguments.get("transactions", "snapshot"));
+        if (transactionMode == TransactionMode.UNDO_LOG) {
+            Path journalDirectory = Path.of(arguments.get("undoJournal", System.getProperty("user.home") + "/.zfsmapper"));
+            for (ZFSMapper shard : router.shards) {
+                String journalName = shard.getFileAccessPath().replaceAll("[^A-Za-z0-9]+", "_") + ".undo";
+                UndoJournal journal = new UndoJournal(journalDirectory.resolve(journalName));
+                router.journals.add(journal);
+                shard.setUndoJournal(journal);
+            }
+        }
+        router.setTransactionMode(transactionMode);
+        router.setGroupCommitWindow(arguments.getInt("groupCommit", 0));
+        router.setShareSnapshots(arguments.getBoolean("shareSnapshots", false));
+        router.setConflictPolicy(ConflictPolicy.fromName(arguments.get("conflictPolicy", "rollback")));
+        int maxSnapshots = arguments.getInt("maxSnapshots", 0);
+        if (maxSnapshots > 0) {
+            router.shards.forEach(shard -> shard.setSnapshotBudget(Math.max(1, maxSnapshots / numberOfShards)));
+        }
+        long lease = arguments.getInt("lease", 0);
+        if (lease > 0) {
+            router.startReaper(lease, arguments.getInt("reapEvery", (int) Math.max(1, lease / 4)));
+        }
+        if (arguments.getBoolean("adaptive", false)) {
+            router.setScheduler(AdaptiveScheduler.fromArguments(arguments));
+        }
+        return router;
+    }
+
+    /**
+     * @param fileName well, the fileName
+     * @return the mapper of the dataset the file belongs to
+     */
+    public ZFSMapper shardFor(String fileName) {
+        return shards.get(Math.floorMod(fileName.hashCode(), shards.size()));
+    }
+
+    public List<ZFSMapper> getShards() {
+        return shards;
+    }
+
+    /**
+     * see ZFSMapper.notifyWrite
+     */
+    public TransactionInformation notifyWrite(String threadName, String fileName) {
+        return shardFor(fileName).notifyWrite(threadName, fileName);
+    }
+
+    /**
+     * see ZFSMapper.appendToFile, only the shard of the file is rolled back on a conflict
+     */
+    public Outcome appendToFile(TransactionInformation transactionInformation, String content) {
+        return shardFor(transactionInformation.getFileName()).appendToFile(transactionInformation, content);
+    }
+
+    /**
+     * see ZFSMapper.createFileWithContent
+     */
+    public void createFileWithContent(String fileName, String fileContent) {
+        shardFor(fileName).createFileWithContent(fileName, fileContent);
+    }
+
+    /**
+     * @param fileName well, the fileName
+     * @return the path of the file on disk, f.e. to open it in an editor
+     */
+    public String getFilePath(String fileName) {
+        return shardFor(fileName).getFileAccessPath() + fileName;
+    }
+
+    /**
+     * the files of all shards, numbered like ZFSMapper.getAllFiles
+     * @return the fileOptions
+     */
+    public Map<Integer, String> getAllFiles() {
+        Map<Integer, String> fileOptions = new HashMap<>();
+        int counter = 1;
+        for (ZFSMapper shard : shards) {
+            List<String> names = new ArrayList<>(shard.getAllFiles().values());
+            Collections.sort(names);
+            for (String name : names) {
+                fileOptions.put(counter++, name);
+            }
+        }
+        return fileOptions;
+    }
+
+    public void deleteAllSnapshot() {
+        shards.forEach(ZFSMapper::deleteAllSnapshot);
+    }
+
+    public void setForceOnWrite(boolean force) {
+        shards.forEach(shard -> shard.setForceOnWrite(force));
+    }
+
+    public void setDetectExternalChanges(boolean detect) {
+        shards.forEach(shard -> shard.setDetectExternalChanges(detect));
+    }
+
+    public void setRollbackMode(RollbackMode mode) {
+        shards.forEach(shard -> shard.setRollbackMode(mode));
+    }
+
+    /**
+     * the undo log mode needs the journals of the shards, see fromArguments
+     */
+    public void setTransactionMode(TransactionMode mode) {
+        shards.forEach(shard -> shard.setTransactionMode(mode));
+    }
+
+    /**
+     * see ZFSMapper.setGroupCommitWindow
+     */
+    public void setGroupCommitWindow(long windowMicros) {
+        shards.forEach(shard -> shard.setGroupCommitWindow(windowMicros));
+    }
+
+    /**
+     * see ZFSMapper.setShareSnapshots
+     */
+    public void setShareSnapshots(boolean share) {
+        shards.forEach(shard -> shard.setShareSnapshots(share));
+    }
+
+    /**
+     * see ZFSMapper.setConflictPolicy
+     */
+    public void setConflictPolicy(ConflictPolicy policy) {
+        shards.forEach(shard -> shard.setConflictPolicy(policy));
+    }
+
+    /**
+     * see ZFSMapper.setScheduler
+     * @param scheduler used by all shards, null to turn it off
+     */
+    public void setScheduler(AdaptiveScheduler scheduler) {
+        this.scheduler = scheduler;
+        shards.forEach(shard -> shard.setScheduler(scheduler));
+    }
+
+    public AdaptiveScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * see ZFSMapper.startWatching
+     */
+    public void startWatching() {
+        shards.forEach(ZFSMapper::startWatching);
+    }
+
+    /**
+     * every shard ends its expired transactions on its own, see ZFSMapper.startReaper
+     */
+    public void startReaper(long leaseMillis, long periodMillis) {
+        shards.forEach(shard -> shard.startReaper(leaseMillis, periodMillis));
+    }
+
+    /**
+     * every shard compares its snapshots on its own, see ZFSMapper.startReconcile
+     */
+    public void startReconcile(long periodSeconds) {
+        shards.forEach(shard -> shard.startReconcile(periodSeconds));
+    }
+
+    /**
+     * @return the latency histograms of all shards together
+     */
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return mean of rollbackTimes in ms over all shards
+     */
+    public double calculateMeanTime() {
+        return metrics.get(TransactionPhase.ROLLBACK).getMeanNanos() / 1_000_000.0;
+    }
+
+    /**
+     * stops the reconcile, reaper and watch threads of the shards and closes the journals
+     */
+    @Override
+    public void close() {
+        shards.forEach(ZFSMapper::stopReconcile);
+        shards.forEach(ZFSMapper::stopReaper);
+        shards.forEach(ZFSMapper::stopWatching);
+        journals.forEach(UndoJournal::close);
+        transactionJournals.forEach(TransactionJournal::close);
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * everything the ZFSMapper needs from whatever takes the snapshots of the directory the files live in.
+ * The original implementation is the zfs command line (ZFSCommandBackend), but to be able to run the
+ * concurrency logic on machines without a zpool there is as well a plain directory based one (DirectoryCopyBackend)
+ *
+ * the semantics follow zfs, so rollbackToSnapshot behaves like zfs rollback -r, e.g. all newer snapshots are gone afterwards
+ */
+public interface SnapshotBackend {
+
+    /**
+     * @return the directory all files of the project are located in, ends with a "/"
+     */
+    String getFileAccessPath();
+
+    /**
+     * creates a snapshot of the whole file directory
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    void createSnapshot(String nameOfSnapshot);
+
+    /**
+     * deletes a single snapshot
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    void deleteSnapshot(String nameOfSnapshot);
+
+    /**
+     * creates several snapshots at once, backends that can do this in one operation override this
+     * @param namesOfSnapshots the names of the snapshots
+     * @return false if the backend reported a failure, some of the snapshots might exist anyway
+     */
+    default boolean createSnapshots(Collection<String> namesOfSnapshots) {
+        namesOfSnapshots.forEach(this::createSnapshot);
+        return true;
+    }
+
+    /**
+     * deletes several snapshots at once, backends that can do this in one operation override this
+     * @param namesOfSnapshots the names of the snapshots
+     * @return false if the backend reported a failure, some of the snapshots might be deleted anyway
+     */
+    default boolean deleteSnapshots(Collection<String> namesOfSnapshots) {
+        namesOfSnapshots.forEach(this::deleteSnapshot);
+        return true;
+    }
+
+    /**
+     * deleteSnapshot for callers that need to know when the snapshot is really gone, f.e. to give back its budget.
+     * Backends that delete later (BatchingSnapshotBackend) complete the future once the deletion was executed
+     * @param nameOfSnapshot the name of the snapshot
+     * @return completed after the deletion, exceptionally if it could not be executed
+     */
+    default CompletableFuture<Void> deleteSnapshotAsync(String nameOfSnapshot) {
+        deleteSnapshot(nameOfSnapshot);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * deleteSnapshots with a future, see deleteSnapshotAsync
+     * @param namesOfSnapshots the names of the snapshots
+     * @return completed after the deletion of all of them, exceptionally if it could not be executed
+     */
+    default CompletableFuture<Void> deleteSnapshotsAsync(Collection<String> namesOfSnapshots) {
+        deleteSnapshots(namesOfSnapshots);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * restores the file directory to the state of the snapshot, all snapshots newer than this one are deleted
+     * the snapshot itself remains
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    void rollbackToSnapshot(String nameOfSnapshot);
+
+    /**
+     * the read only copy of a file inside a snapshot, used to restore a single file instead of rolling back everything
+     * @param nameOfSnapshot the name of the snapshot
+     * @param fileName well, the fileName
+     * @return where the file of the snapshot can be read, it does not exist if the file was created after the snapshot
+     */
+    Path getSnapshotFilePath(String nameOfSnapshot, String fileName);
+
+    /**
+     * @return all names of the currently existing snapshots
+     */
+    Set<String> getAllSnapshots();
+
+    /**
+     * deletes every snapshot, used on initialization to get rid of leftovers from testing
+     */
+    void deleteAllSnapshots();
+
+    /**
+     * called by the mapper right before it modifies a file. Backends that share data between the live files and
+     * their snapshots (hardlinks) use this to detach the file first and to keep snapshots from being taken
+     * while the write happens, for zfs there is nothing to do as its snapshots are atomic anyway
+     * every call is followed by endWrite, also if the write failed
+     * @param fileName well, the fileName
+     */
+    default void beginWrite(String fileName) {
+    }
+
+    /**
+     * called by the mapper after the write started with beginWrite is done
+     * @param fileName well, the fileName
+     */
+    default void endWrite(String fileName) {
+    }
+
+    /**
+     * DEBUG: showing all snapshots
+     */
+    default void showSnapshots() {
+        getAllSnapshots().forEach(System.out::println);
+    }
+
+    /**
+     * picks the backend at startup, used by Validator and BrainstormingTool
+     * backend=zfs (default) uses the zfs cli on mypool/myfs
+     * backend=dir root=/some/dir uses the directory backend, root defaults to /tmp/myfs
+     * batchWindow=micros (default 0 = off) batchSize=N groups snapshot creation and deletion, see BatchingSnapshotBackend
+     * @param arguments the parsed program arguments
+     * @return the backend to use
+     */
+    static SnapshotBackend fromArguments(Arguments arguments) {
+        return fromArguments(arguments, 0, 1);
+    }
+
+    /**
+     * the backend of one shard, see ShardRouter. With more than one shard every shard gets its own child dataset
+     * dataset/shardN mounted at root/shardN/ (created if missing), for the directory backend the directory root/shardN/.
+     * createDataset=true creates the dataset with one shard as well, used for the datasets of the scenarios
+     * @param arguments the parsed program arguments
+     * @param shard the number of the shard, starting at 0
+     * @param shards the number of shards, 1 uses root and dataset directly
+     * @return the backend of the shard
+     */
+    static SnapshotBackend fromArguments(Arguments arguments, int shard, int shards) {
+        String name = arguments.get("backend", "zfs");
+        String root = arguments.get("root", name.equals("zfs") ? "/mypool/myfs/" : "/tmp/myfs/");
+        root = root.endsWith("/") ? root : root + "/";
+        String shardSuffix = shards > 1 ? "shard" + shard : "";
+        SnapshotBackend backend;
+        switch (name) {
+            case "zfs":
+                String dataset = arguments.get("dataset", "mypool/myfs");
+                ZFSCommandBackend zfsBackend = new ZFSCommandBackend(root + shardSuffix,
+                        shards > 1 ? dataset + "/" + shardSuffix : dataset);
+                if (shards > 1 || arguments.getBoolean("createDataset", false)) {
+                    zfsBackend.createDatasetIfMissing();
+                }
+                backend = zfsBackend;
+                break;
+            case "dir":
+                backend = new DirectoryCopyBackend(root + shardSuffix);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown backend " + name + ", use zfs or dir");
+        }
+        int batchWindow = arguments.getInt("batchWindow", 0);
+        if (batchWindow > 0) {
+            return new BatchingSnapshotBackend(backend, batchWindow, arguments.getInt("batchSize", 64));
+        }
+        return backend;
+    }
+}
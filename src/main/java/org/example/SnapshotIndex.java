@@ -0,0 +1,143 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * keeps the creation order of the snapshots in memory, so after a rollback -r the snapshots that zfs deleted
+ * (all newer ones) can be computed without asking zfs.
+ *
+ * Snapshots are created in parallel, so the order in which zfs created them is not known exactly. Every snapshot therefore
+ * gets a tick before its creation started and one after it returned. A snapshot is surely older than another one
+ * if it was done before the other one started, if the two intervals overlap either one can be the older one.
+ */
+public class SnapshotIndex {
+
+    /**
+     * the interval in which a snapshot was created
+     */
+    public static class Entry {
+        private final String nameOfSnapshot;
+        private final long startTick;
+        private final long endTick;
+
+        private Entry(String nameOfSnapshot, long startTick, long endTick) {
+            this.nameOfSnapshot = nameOfSnapshot;
+            this.startTick = startTick;
+            this.endTick = endTick;
+        }
+
+        public String getNameOfSnapshot() {
+            return nameOfSnapshot;
+        }
+
+        public long getStartTick() {
+            return startTick;
+        }
+
+        public long getEndTick() {
+            return endTick;
+        }
+
+        /**
+         * @param other another snapshot
+         * @return true if it can not be said which of both was created first
+         */
+        public boolean overlaps(Entry other) {
+            return startTick < other.endTick && other.startTick < endTick;
+        }
+    }
+
+    private final AtomicLong ticks = new AtomicLong();
+    /**
+     * key = end tick, unique as every tick is only given once
+     */
+    private final ConcurrentSkipListMap<Long, Entry> byEndTick = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Entry> byName = new ConcurrentHashMap<>();
+
+    /**
+     * @return the tick to pass to register once the snapshot is created
+     */
+    public long beginCreation() {
+        return ticks.incrementAndGet();
+    }
+
+    /**
+     * @return a new tick, f.e. to order a change of a file between the snapshots
+     */
+    public long tick() {
+        return ticks.incrementAndGet();
+    }
+
+    /**
+     * @return the start tick of the first snapshot done, no snapshot still known needs anything before it, the
+     * current tick if there is none
+     */
+    public long oldestStartTick() {
+        Map.Entry<Long, Entry> first = byEndTick.firstEntry();
+        return first == null ? ticks.get() : first.getValue().startTick;
+    }
+
+    /**
+     * adds the snapshot after its creation returned
+     * @param nameOfSnapshot the name of the snapshot
+     * @param startTick the tick of beginCreation
+     * @return the entry of the snapshot
+     */
+    public Entry register(String nameOfSnapshot, long startTick) {
+        Entry entry = new Entry(nameOfSnapshot, startTick, ticks.incrementAndGet());
+        byName.put(nameOfSnapshot, entry);
+        byEndTick.put(entry.endTick, entry);
+        return entry;
+    }
+
+    public Entry get(String nameOfSnapshot) {
+        return byName.get(nameOfSnapshot);
+    }
+
+    public boolean contains(String nameOfSnapshot) {
+        return byName.containsKey(nameOfSnapshot);
+    }
+
+    public void remove(String nameOfSnapshot) {
+        Entry entry = byName.remove(nameOfSnapshot);
+        if (entry != null) {
+            byEndTick.remove(entry.endTick);
+        }
+    }
+
+    /**
+     * all snapshots that might be newer than the given one, these are the ones a rollback -r to it can delete.
+     * This includes the ones created at the same time, the rollback -r might not destroy those
+     * @param nameOfSnapshot the name of the snapshot
+     * @return the possibly newer snapshots, empty if the snapshot is unknown
+     */
+    public List<Entry> newerThan(String nameOfSnapshot) {
+        Entry target = byName.get(nameOfSnapshot);
+        List<Entry> newer = new ArrayList<>();
+        if (target == null) {
+            return newer;
+        }
+        for (Entry entry : byEndTick.tailMap(target.startTick, false).values()) {
+            if (entry != target) {
+                newer.add(entry);
+            }
+        }
+        return newer;
+    }
+
+    /**
+     * @return the names of all snapshots known
+     */
+    public List<String> names() {
+        return new ArrayList<>(byName.keySet());
+    }
+
+    public int size() {
+        return byName.size();
+    }
+}
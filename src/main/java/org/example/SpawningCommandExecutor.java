@@ -0,0 +1,38 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the original way of executing commands, a new bash -c process for every single command
+ */
+public class SpawningCommandExecutor implements CommandExecutor {
+
+    @Override
+    public CommandResult execute(String command) {
+        List<String> output = new ArrayList<>();
+        try {
+            // Create process and execute command
+            ProcessBuilder processBuilder = new ProcessBuilder("bash", "-c", command);
+            processBuilder.redirectErrorStream(true);  // Merge stdout and stderr
+            Process process = processBuilder.start();
+
+            // Read the output and error streams
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+            return new CommandResult(process.waitFor(), output);
+        } catch (IOException e) {
+            System.err.println("Failure on command: " + command);
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new CommandResult(-1, output);
+    }
+}
@@ -1,12 +1,15 @@
 package org.example;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class TransactionInformation {
 
 
     /**
      * static counter, although I do not need the id here it generally makes sense for such objects
+     * atomic as transactions are started by many threads at the same time
      */
-    private static long idCounter=0;
+    private static final AtomicLong idCounter = new AtomicLong();
     /**
      * as said above
      */
@@ -20,27 +23,67 @@ public class TransactionInformation {
      */
     private String fileName;
     /**
-     * the name of the snapshot taken on initialization of this object
+     * the name of the snapshot taken on initialization of this object, with snapshot sharing other transactions
+     * might hold the same snapshot
      */
     private String snapshotName;
     /**
-     * the timestamp of the file on initialization of this object
+     * the version of the file in the FileVersionRegistry on initialization of this object
+     */
+    private long fileVersion;
+    /**
+     * modification time and size of the file on initialization of this object, null if external changes are not detected
+     */
+    private FileVersionRegistry.FileStamp fileStamp;
+    /**
+     * the length of the file on initialization of this object if the transaction has no snapshot but is undone by
+     * truncating the file (TransactionMode.UNDO_LOG), -1 for a snapshot transaction
+     */
+    private long fileOffset;
+    /**
+     * true if the AdaptiveScheduler admitted this transaction exclusively, then it owns its file and took no snapshot
+     */
+    private volatile boolean exclusive;
+    /**
+     * cancelled by the mapper as soon as this transaction can no longer commit
+     */
+    private final CancellationToken cancellation = new CancellationToken();
+    /**
+     * System.nanoTime() on initialization of this object, to measure the work lost if it does not commit
+     */
+    private final long startNanos = System.nanoTime();
+    /**
+     * the age used by the ConflictPolicy, smaller = older. The start of this attempt unless the TransactionRunner
+     * keeps the one of the first attempt
      */
-    private long fileLastModified;
+    private long priority = startNanos;
 
     /**
      * basic constructor
      * @param threadName see above
      * @param fileName see above
      * @param snapshotName see above
-     * @param fileLastModified see above
+     * @param fileVersion see above
+     * @param fileStamp see above
+     */
+    public TransactionInformation(String threadName, String fileName, String snapshotName, long fileVersion,
+                                  FileVersionRegistry.FileStamp fileStamp) {
+        this(threadName, fileName, snapshotName, fileVersion, fileStamp, -1);
+    }
+
+    /**
+     * constructor of an undo log transaction
+     * @param fileOffset see above
      */
-    public TransactionInformation(String threadName, String fileName, String snapshotName, long fileLastModified) {
-        this.id = idCounter++;
+    public TransactionInformation(String threadName, String fileName, String snapshotName, long fileVersion,
+                                  FileVersionRegistry.FileStamp fileStamp, long fileOffset) {
+        this.id = idCounter.getAndIncrement();
         this.threadName = threadName;
         this.fileName = fileName;
         this.snapshotName = snapshotName;
-        this.fileLastModified = fileLastModified;
+        this.fileVersion = fileVersion;
+        this.fileStamp = fileStamp;
+        this.fileOffset = fileOffset;
     }
 
     /**
@@ -61,8 +104,72 @@ public class TransactionInformation {
         return snapshotName;
     }
 
-    public long getFileLastModified() {
-        return fileLastModified;
+    public long getId() {
+        return id;
+    }
+
+    public long getFileVersion() {
+        return fileVersion;
+    }
+
+    public FileVersionRegistry.FileStamp getFileStamp() {
+        return fileStamp;
+    }
+
+    /**
+     * after a rollback brought the file back to the state this transaction started with, it has a new version
+     * @param fileVersion the version of the file after the rollback
+     * @param fileStamp its stamp after the rollback, null if external changes are not detected
+     */
+    public void restamp(long fileVersion, FileVersionRegistry.FileStamp fileStamp) {
+        this.fileVersion = fileVersion;
+        this.fileStamp = fileStamp;
+    }
+
+    public long getFileOffset() {
+        return fileOffset;
+    }
+
+    /**
+     * @return true if no snapshot was taken for this transaction, it is undone by truncating to the fileOffset
+     */
+    public boolean isUndoLog() {
+        return fileOffset >= 0;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getPriority() {
+        return priority;
+    }
+
+    public void setPriority(long priority) {
+        this.priority = priority;
+    }
+
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    public synchronized void setExclusive(boolean exclusive) {
+        this.exclusive = exclusive;
+    }
+
+    /**
+     * gives up the exclusive admission, only the first call gets true. So the file is handed to the next transaction
+     * only once if the reaper ended this one before its thread came back
+     * @return true if this transaction was admitted exclusively and had not given it up yet
+     */
+    public synchronized boolean endExclusive() {
+        boolean was = exclusive;
+        exclusive = false;
+        return was;
     }
 
 
@@ -0,0 +1,570 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * the journal of all transactions of one mapper, so a crashed run does not leave snapshots and half written appends
+ * behind. Before this the Validator deleted every snapshot of the dataset on startup.
+ *
+ * the records are appended to a memory mapped file:
+ * SNAPSHOT name (before the snapshot is taken), BEGIN id thread file snapshot, APPEND id offset file (before an append,
+ * offset = the length of the file before), RESTORE id snapshot file (before a file is copied back from its snapshot),
+ * COMMIT id (after the append), ABORT id (the transaction ended without commit) and DESTROY name (after the snapshot is gone).
+ * A record is [length][crc32][type][id][fields], padded to 4 bytes. The room of a record and its length are reserved under
+ * a short lock, the record itself is written outside of it, so the transactions of a dataset do not wait for each
+ * other here. A record the crash caught half written has a wrong crc and is skipped, its operation did not happen yet
+ * as every record is written before what it describes. The replay ends at the first length 0.
+ * The writes go to the page cache, so the journal survives a crash of the jvm. Only with force (forceOnWrite) the
+ * records are forced to disk and survive a power loss as well, one force covers all records written before it (group force).
+ *
+ * the journal only has to describe what is still open, so it starts from the beginning whenever nothing is open and is
+ * rewritten with the open records only when it is full or holds COMPACT_AFTER records more than are open, f.e. while a
+ * long transaction keeps it from starting over. The replay on startup therefore reads about as many records as
+ * transactions were running, independent of how many files and commits the dataset has
+ */
+public class TransactionJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x5A544A31; // ZTJ1
+    private static final int HEADER = 4;
+    private static final int INITIAL_SIZE = 1 << 20;
+    /**
+     * the journal is compacted once it holds this many records more than are open
+     */
+    private static final int COMPACT_AFTER = 1024;
+
+    private static final byte SNAPSHOT = 1;
+    private static final byte BEGIN = 2;
+    private static final byte APPEND = 3;
+    private static final byte RESTORE = 4;
+    private static final byte COMMIT = 5;
+    private static final byte ABORT = 6;
+    private static final byte DESTROY = 7;
+
+    private record Begin(String threadName, String fileName, String snapshotName) {
+    }
+
+    private record Append(String fileName, long offset) {
+    }
+
+    private record Restore(String snapshotName, String fileName) {
+    }
+
+    /**
+     * what the last run left open
+     * @param transactions the transactions that were running, rebuilt from their BEGIN record
+     * @param unfinishedAppends fileName -> the length of the file before an append that has no COMMIT
+     * @param unfinishedRestores fileName -> the snapshot the file was being copied back from
+     * @param orphanedSnapshots the snapshots the last run took and did not destroy
+     * @param records the number of records replayed
+     */
+    public record Recovery(List<TransactionInformation> transactions, Map<String, Long> unfinishedAppends,
+                           Map<String, String> unfinishedRestores, Set<String> orphanedSnapshots, int records) {
+
+        public boolean isEmpty() {
+            return transactions.isEmpty() && unfinishedAppends.isEmpty() && unfinishedRestores.isEmpty() && orphanedSnapshots.isEmpty();
+        }
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private volatile boolean force;
+    /**
+     * guards the state below, the position and the buffer. Only held to reserve the room of a record. A ReentrantLock
+     * and not synchronized, so a virtual thread waiting for it is not pinned to its carrier
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * where the next record goes
+     */
+    private int position;
+    /**
+     * the records since the journal was started or compacted
+     */
+    private int records;
+    /**
+     * the records reserved and not written yet, compaction and restart wait for them
+     */
+    private final AtomicInteger writing = new AtomicInteger();
+    /**
+     * the group force, a record is on disk once forcedWrites reached the number completedWrites gave it
+     */
+    private final AtomicLong completedWrites = new AtomicLong();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private long forcedWrites;
+
+    /**
+     * the state the records describe, rewritten on compaction
+     */
+    private final Map<Long, Begin> open = new LinkedHashMap<>();
+    private final Map<Long, Append> appends = new LinkedHashMap<>();
+    private final Map<Long, Restore> restores = new LinkedHashMap<>();
+    private final Set<String> snapshots = new LinkedHashSet<>();
+    /**
+     * how the last run ended, read once on opening
+     */
+    private final Recovery recovery;
+
+    /**
+     * opens the journal and replays the records of the last run, see getRecovery. They are kept until clear is called
+     * @param path the journal file, created if missing. It has to live outside of the dataset, otherwise a rollback
+     *             would roll it back as well
+     */
+    public TransactionJournal(Path path) {
+        this.path = path;
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            long size = Files.exists(path) ? Math.max(Files.size(path), INITIAL_SIZE) : INITIAL_SIZE;
+            map(size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not open transaction journal " + path, e);
+        }
+        records = replay();
+        List<TransactionInformation> transactions = new ArrayList<>();
+        open.values().forEach(begin -> transactions.add(
+                new TransactionInformation(begin.threadName(), begin.fileName(), begin.snapshotName(), 0, null)));
+        Map<String, Long> unfinishedAppends = new LinkedHashMap<>();
+        appends.values().forEach(append -> unfinishedAppends.putIfAbsent(append.fileName(), append.offset()));
+        Map<String, String> unfinishedRestores = new LinkedHashMap<>();
+        restores.values().forEach(restore -> unfinishedRestores.putIfAbsent(restore.fileName(), restore.snapshotName()));
+        recovery = new Recovery(transactions, unfinishedAppends, unfinishedRestores, new LinkedHashSet<>(snapshots), records);
+    }
+
+    private void map(long size) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(HEADER, 0);
+        }
+        position = HEADER;
+    }
+
+    /**
+     * @return the size of a record with this payload, padded so every length is aligned
+     */
+    private static int sizeOf(int payloadLength) {
+        return (8 + payloadLength + 3) & ~3;
+    }
+
+    /**
+     * reads the records up to the first empty one, half written ones are skipped. The position is left behind the last one
+     * @return the number of records read
+     */
+    private int replay() {
+        int read = 0;
+        while (position + 8 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 8L + length > buffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + 8, payload);
+            CRC32 checksum = new CRC32();
+            checksum.update(payload);
+            if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                System.err.println("transaction journal " + path + ": skipping the unfinished record at " + position);
+                position += sizeOf(length);
+                continue;
+            }
+            try {
+                apply(ByteBuffer.wrap(payload));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                System.err.println("transaction journal " + path + ": ignoring the unknown record at " + position);
+                break;
+            }
+            position += sizeOf(length);
+            read++;
+        }
+        return read;
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        long id = record.getLong();
+        switch (type) {
+            case SNAPSHOT -> snapshots.add(readString(record));
+            case BEGIN -> open.put(id, new Begin(readString(record), readString(record), readString(record)));
+            case APPEND -> {
+                long offset = record.getLong();
+                appends.put(id, new Append(readString(record), offset));
+            }
+            case RESTORE -> restores.put(id, new Restore(readString(record), readString(record)));
+            case COMMIT, ABORT -> {
+                open.remove(id);
+                appends.remove(id);
+                restores.remove(id);
+            }
+            case DESTROY -> snapshots.remove(readString(record));
+            default -> throw new IllegalArgumentException("unknown record type " + type);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xFFFF];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param force true if every record is forced to disk, only then the journal survives a power loss
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return what the last run left open, read when the journal was opened
+     */
+    public Recovery getRecovery() {
+        return recovery;
+    }
+
+    /**
+     * written right before the snapshot is taken, a snapshot that exists without this record was not taken by the mapper
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    public void logSnapshot(String nameOfSnapshot) {
+        log(encode(SNAPSHOT, 0, nameOfSnapshot), () -> {
+            snapshots.add(nameOfSnapshot);
+            return true;
+        });
+    }
+
+    /**
+     * @param transactionInformation the transaction that just started
+     */
+    public void logBegin(TransactionInformation transactionInformation) {
+        Begin begin = new Begin(transactionInformation.getThreadName(), transactionInformation.getFileName(),
+                transactionInformation.getSnapshotName());
+        log(encode(BEGIN, transactionInformation.getId(), begin.threadName(), begin.fileName(), begin.snapshotName()), () -> {
+            open.put(transactionInformation.getId(), begin);
+            return true;
+        });
+    }
+
+    /**
+     * written right before an append, under the file lock
+     * @param transactionId the id of the transaction
+     * @param fileName well, the fileName
+     * @param offset the length of the file before the append
+     */
+    public void logAppend(long transactionId, String fileName, long offset) {
+        log(encode(APPEND, transactionId, offset, fileName), () -> {
+            appends.put(transactionId, new Append(fileName, offset));
+            return true;
+        });
+    }
+
+    /**
+     * written right before the file of the transaction is copied back from its snapshot, under the file lock
+     */
+    public void logRestore(TransactionInformation transactionInformation) {
+        Restore restore = new Restore(transactionInformation.getSnapshotName(), transactionInformation.getFileName());
+        log(encode(RESTORE, transactionInformation.getId(), restore.snapshotName(), restore.fileName()), () -> {
+            restores.put(transactionInformation.getId(), restore);
+            return true;
+        });
+    }
+
+    /**
+     * written after the append is done, ends the transaction
+     * @param transactionId the id of the transaction
+     */
+    public void logCommit(long transactionId) {
+        log(encode(COMMIT, transactionId), () -> {
+            end(transactionId);
+            return true;
+        });
+    }
+
+    /**
+     * ends a transaction that did not commit, nothing is written if it ended already
+     * @param transactionId the id of the transaction
+     */
+    public void logAbort(long transactionId) {
+        log(encode(ABORT, transactionId), () -> end(transactionId));
+    }
+
+    /**
+     * @return true if the transaction was open
+     */
+    private boolean end(long transactionId) {
+        boolean wasOpen = open.remove(transactionId) != null;
+        wasOpen |= appends.remove(transactionId) != null;
+        wasOpen |= restores.remove(transactionId) != null;
+        return wasOpen;
+    }
+
+    /**
+     * written after the snapshot was destroyed, by a destroy or a rollback -r. Nothing is written for snapshots the
+     * journal does not know
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    public void logDestroy(String nameOfSnapshot) {
+        log(encode(DESTROY, 0, nameOfSnapshot), () -> snapshots.remove(nameOfSnapshot));
+    }
+
+    /**
+     * forgets all snapshots, after all snapshots of the dataset were deleted
+     */
+    public void logDestroyAll() {
+        List<String> names;
+        lock.lock();
+        try {
+            names = new ArrayList<>(snapshots);
+        } finally {
+            lock.unlock();
+        }
+        names.forEach(this::logDestroy);
+    }
+
+    /**
+     * removes all records, called once the recovery is done
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            open.clear();
+            appends.clear();
+            restores.clear();
+            snapshots.clear();
+            restart();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * applies the record to the state and reserves its room under the lock, then writes it outside of it
+     * @param payload the encoded record
+     * @param update changes the state, false if there is nothing to write
+     */
+    private void log(byte[] payload, BooleanSupplier update) {
+        MappedByteBuffer target;
+        int start;
+        lock.lock();
+        try {
+            if (!update.getAsBoolean()) {
+                return;
+            }
+            int size = sizeOf(payload.length);
+            if (position + size + 4 > buffer.capacity()) {
+                compact(size + 4);
+            }
+            target = buffer;
+            start = position;
+            position += size;
+            records++;
+            // the terminator first and then the length, the chain of lengths never leads into room nobody reserved
+            target.putInt(position, 0);
+            target.putInt(start, payload.length);
+            writing.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        target.put(start + 8, payload);
+        target.putInt(start + 4, (int) checksum.getValue());
+        long written = completedWrites.incrementAndGet();
+        writing.decrementAndGet();
+        if (force) {
+            forceUpTo(written);
+        }
+        lock.lock();
+        try {
+            int live = open.size() + appends.size() + restores.size() + snapshots.size();
+            if (live == 0) {
+                // nothing left that a recovery would need
+                restart();
+            } else if (records > COMPACT_AFTER + 2 * live) {
+                compact(0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * forces the journal unless a force that started after the record was written did it already
+     * @param written the number completedWrites gave the record
+     */
+    private void forceUpTo(long written) {
+        forceLock.lock();
+        try {
+            if (forcedWrites >= written) {
+                return;
+            }
+            long upTo = completedWrites.get();
+            buffer.force();
+            forcedWrites = upTo;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * waits for the records reserved by others, called with the lock held. They do not need the lock to finish
+     */
+    private void awaitWriters() {
+        while (writing.get() > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+    }
+
+    /**
+     * starts the journal from the beginning, called with the lock held
+     */
+    private void restart() {
+        awaitWriters();
+        buffer.putInt(HEADER, 0);
+        position = HEADER;
+        records = 0;
+        if (force) {
+            buffer.force();
+        }
+    }
+
+    private static byte[] encode(byte type, long id, Object... fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeLong(id);
+            for (Object field : fields) {
+                if (field instanceof Long value) {
+                    out.writeLong(value);
+                } else {
+                    byte[] string = field.toString().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(string.length);
+                    out.write(string);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * rewrites the journal with the records of what is still open into a new file and replaces the old one with it,
+     * the file grows if that does not leave enough room. Called with the lock held
+     * @param needed the room the next record needs
+     */
+    private void compact(int needed) {
+        awaitWriters();
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        int compactedRecords = 0;
+        try (DataOutputStream out = new DataOutputStream(image)) {
+            out.writeInt(MAGIC);
+            for (String nameOfSnapshot : snapshots) {
+                writeRecord(out, encode(SNAPSHOT, 0, nameOfSnapshot));
+                compactedRecords++;
+            }
+            for (Map.Entry<Long, Begin> begin : open.entrySet()) {
+                Begin record = begin.getValue();
+                writeRecord(out, encode(BEGIN, begin.getKey(), record.threadName(), record.fileName(), record.snapshotName()));
+                compactedRecords++;
+            }
+            for (Map.Entry<Long, Append> append : appends.entrySet()) {
+                writeRecord(out, encode(APPEND, append.getKey(), append.getValue().offset(), append.getValue().fileName()));
+                compactedRecords++;
+            }
+            for (Map.Entry<Long, Restore> restore : restores.entrySet()) {
+                writeRecord(out, encode(RESTORE, restore.getKey(), restore.getValue().snapshotName(), restore.getValue().fileName()));
+                compactedRecords++;
+            }
+            out.writeInt(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long size = buffer.capacity();
+        while (size < image.size() + needed) {
+            size *= 2;
+        }
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        // no force runs on the old buffer meanwhile, the compacted file is forced itself
+        forceLock.lock();
+        try {
+            try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer content = ByteBuffer.wrap(image.toByteArray());
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // mapping extends the file to the new size
+            map(size);
+            position = image.size() - 4;
+            records = compactedRecords;
+            forcedWrites = completedWrites.get();
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not compact transaction journal " + path, e);
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) checksum.getValue());
+        out.write(payload);
+        for (int i = 8 + payload.length; i < sizeOf(payload.length); i++) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * the file is deleted if nothing is open anymore, there is nothing to recover after a clean end
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            awaitWriters();
+            buffer.force();
+            channel.close();
+            if (open.isEmpty() && appends.isEmpty() && restores.isEmpty() && snapshots.isEmpty()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * one LatencyHistogram per TransactionPhase, replaces the Timer and the timings list of the ZFSMapper
+ */
+public class TransactionMetrics {
+
+    /**
+     * the percentiles written by the Validator
+     */
+    public static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private final Map<TransactionPhase, LatencyHistogram> histograms = new EnumMap<>(TransactionPhase.class);
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder rollbackVictims = new LongAdder();
+    private final LongAdder commitGroups = new LongAdder();
+    private final LongAdder sharedSnapshots = new LongAdder();
+    private final LongAdder earlyAborts = new LongAdder();
+    private final LongAdder discardedWorkNanos = new LongAdder();
+    private final LongAdder savedWriteMillis = new LongAdder();
+    private final LongAdder groupedCommits = new LongAdder();
+    private final LongAdder reapedTransactions = new LongAdder();
+    private final LongAdder reapedSnapshots = new LongAdder();
+    /**
+     * the snapshots of transactions that exist right now, not reset
+     */
+    private final LongAdder liveSnapshots = new LongAdder();
+    private final LongAccumulator peakLiveSnapshots = new LongAccumulator(Math::max, 0);
+
+    public TransactionMetrics() {
+        for (TransactionPhase phase : TransactionPhase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @param phase the phase that was measured
+     * @param startNanos System.nanoTime() when the phase started
+     */
+    public void recordSince(TransactionPhase phase, long startNanos) {
+        histograms.get(phase).recordSince(startNanos);
+    }
+
+    /**
+     * the blast radius of a rollback
+     * @param victims the transactions that lost their snapshot by the rollback, the one rolling back not included
+     */
+    public void recordRollbackVictims(int victims) {
+        rollbacks.increment();
+        rollbackVictims.add(victims);
+    }
+
+    /**
+     * @return the mean number of transactions aborted by one rollback, 0 if there was none
+     */
+    public double getMeanRollbackVictims() {
+        long n = rollbacks.sum();
+        return n == 0 ? 0 : (double) rollbackVictims.sum() / n;
+    }
+
+    /**
+     * @param size the transactions committed by one group commit
+     */
+    public void recordCommitGroup(int size) {
+        commitGroups.increment();
+        groupedCommits.add(size);
+    }
+
+    /**
+     * @return the mean number of transactions per group commit, 0 if group commit is off
+     */
+    public double getMeanCommitGroupSize() {
+        long n = commitGroups.sum();
+        return n == 0 ? 0 : (double) groupedCommits.sum() / n;
+    }
+
+    /**
+     * a transaction reused the snapshot of another one instead of taking its own
+     */
+    public void recordSharedSnapshot() {
+        sharedSnapshots.increment();
+    }
+
+    public long getSharedSnapshots() {
+        return sharedSnapshots.sum();
+    }
+
+    /**
+     * a transaction stopped writing because its CancellationToken was cancelled
+     * @param savedMillis the writing time it did not waste
+     */
+    public void recordEarlyAbort(long savedMillis) {
+        earlyAborts.increment();
+        savedWriteMillis.add(savedMillis);
+    }
+
+    /**
+     * work that is lost, the time of an attempt that did not commit or of a commit that was rolled back
+     * @param nanos the lost time
+     */
+    public void recordDiscardedWork(long nanos) {
+        discardedWorkNanos.add(nanos);
+    }
+
+    public double getDiscardedWorkSeconds() {
+        return discardedWorkNanos.sum() / 1_000_000_000.0;
+    }
+
+    /**
+     * one round of the reaper that ended transactions, the time is recorded as TransactionPhase.REAP
+     * @param transactions the transactions whose lease expired
+     * @param snapshots the snapshots destroyed because of them
+     */
+    public void recordReap(int transactions, int snapshots) {
+        reapedTransactions.add(transactions);
+        reapedSnapshots.add(snapshots);
+    }
+
+    public long getReapedTransactions() {
+        return reapedTransactions.sum();
+    }
+
+    public long getReapedSnapshots() {
+        return reapedSnapshots.sum();
+    }
+
+    /**
+     * @param delta +1 for a snapshot taken for a transaction, -1 for one destroyed
+     */
+    public void recordLiveSnapshots(int delta) {
+        liveSnapshots.add(delta);
+        if (delta > 0) {
+            peakLiveSnapshots.accumulate(liveSnapshots.sum());
+        }
+    }
+
+    /**
+     * @return the snapshots of transactions that exist right now, of all shards sharing these metrics
+     */
+    public long getLiveSnapshots() {
+        return liveSnapshots.sum();
+    }
+
+    /**
+     * @return the most live snapshots at once since the last reset
+     */
+    public long getPeakLiveSnapshots() {
+        return peakLiveSnapshots.get();
+    }
+
+    public long getEarlyAborts() {
+        return earlyAborts.sum();
+    }
+
+    public long getSavedWriteMillis() {
+        return savedWriteMillis.sum();
+    }
+
+    public LatencyHistogram get(TransactionPhase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * resets all histograms, f.e. between two simulations
+     */
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        rollbacks.reset();
+        rollbackVictims.reset();
+        commitGroups.reset();
+        sharedSnapshots.reset();
+        earlyAborts.reset();
+        discardedWorkNanos.reset();
+        savedWriteMillis.reset();
+        groupedCommits.reset();
+        reapedTransactions.reset();
+        reapedSnapshots.reset();
+        peakLiveSnapshots.reset();
+        peakLiveSnapshots.accumulate(liveSnapshots.sum());
+    }
+}
@@ -0,0 +1,29 @@
+package org.example;
+
+/**
+ * how notifyWrite makes a transaction undoable
+ */
+public enum TransactionMode {
+
+    /**
+     * a snapshot of the dataset per transaction, works for any change of the file
+     */
+    SNAPSHOT,
+
+    /**
+     * no snapshot, only the length of the file is remembered. Every write of the mapper is an append, so a transaction
+     * is undone by truncating the file to that length again. A conflict therefore always restores only the file,
+     * like RollbackMode.FILE. The appends are recorded in the TransactionJournal or, without one, in an UndoJournal, so a crash in the
+     * middle of one can be undone
+     */
+    UNDO_LOG;
+
+    /**
+     * @param name snapshot or undo, case does not matter
+     * @return the mode
+     */
+    public static TransactionMode fromName(String name) {
+        String upper = name.trim().toUpperCase();
+        return upper.equals("UNDO") ? UNDO_LOG : valueOf(upper);
+    }
+}
@@ -0,0 +1,39 @@
+package org.example;
+
+/**
+ * the parts of a transaction whose latency is recorded by the TransactionMetrics
+ */
+public enum TransactionPhase {
+    /**
+     * creating the snapshot in notifyWrite
+     */
+    SNAPSHOT_CREATE,
+    /**
+     * comparing the file version in appendToFile
+     */
+    CONFLICT_CHECK,
+    /**
+     * writing the content to the file
+     */
+    APPEND,
+    /**
+     * the whole rollbackToSnapshot
+     */
+    ROLLBACK,
+    /**
+     * deleting a snapshot
+     */
+    DESTROY,
+    /**
+     * listing the snapshots of the backend (zfs list)
+     */
+    ZFS_LIST,
+    /**
+     * waiting in notifyWrite until the number of live snapshots is below the budget
+     */
+    SNAPSHOT_BUDGET,
+    /**
+     * one round of the reaper, finding the expired transactions and destroying their snapshots
+     */
+    REAP
+}
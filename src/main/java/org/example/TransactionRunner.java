@@ -0,0 +1,182 @@
+package org.example;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * executes a transaction and starts it again after a conflict, up to the retry budget of the RetryPolicy.
+ * Every attempt is a new notifyWrite, the body runs again and the content it returns is appended.
+ *
+ * counts the outcome of every attempt, the retries and the transactions that gave up, so goodput (transactions that
+ * committed in the end per second) and the retries per commit can be compared with the attempts per second.
+ * With many threads on few files the retries can make both worse, that is why they are measured together
+ */
+public class TransactionRunner {
+
+    /**
+     * what the transaction does between notifyWrite and appendToFile
+     */
+    @FunctionalInterface
+    public interface TransactionBody {
+        /**
+         * @param transactionInformation the transaction of this attempt
+         * @param attempt 0 for the first execution, 1 for the first retry...
+         * @return the content to append
+         */
+        String write(TransactionInformation transactionInformation, int attempt);
+    }
+
+    private final ShardRouter mapper;
+    private final RetryPolicy retryPolicy;
+
+    private final Map<Outcome, LongAdder> attempts = new EnumMap<>(Outcome.class);
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder gaveUp = new LongAdder();
+    /**
+     * records every attempt if set, see TransactionTrace
+     */
+    private volatile TransactionTrace.Writer trace;
+
+    /**
+     * @param mapper executes the transactions
+     * @param retryPolicy the retry budget and the backoff
+     */
+    public TransactionRunner(ShardRouter mapper, RetryPolicy retryPolicy) {
+        this.mapper = mapper;
+        this.retryPolicy = retryPolicy;
+        for (Outcome outcome : Outcome.values()) {
+            attempts.put(outcome, new LongAdder());
+        }
+    }
+
+    /**
+     * runs the transaction until it commits or the retries are used up
+     * @param threadName well, the threadName
+     * @param fileName well, the fileName
+     * @param body writes the content, executed once per attempt
+     * @return COMMITTED or the outcome of the last attempt
+     */
+    public Outcome run(String threadName, String fileName, TransactionBody body) {
+        transactions.increment();
+        long priority = 0;
+        for (int attempt = 0; ; attempt++) {
+            long start = System.nanoTime();
+            TransactionInformation transactionInformation = mapper.notifyWrite(threadName, fileName);
+            // a retry is as old as the first attempt, see ConflictPolicy
+            if (attempt == 0) {
+                priority = transactionInformation.getPriority();
+            } else {
+                transactionInformation.setPriority(priority);
+            }
+            String content = body.write(transactionInformation, attempt);
+            long writeEnd = System.nanoTime();
+            Outcome outcome = mapper.appendToFile(transactionInformation, content);
+            attempts.get(outcome).increment();
+            TransactionTrace.Writer trace = this.trace;
+            if (trace != null) {
+                trace.record(start, writeEnd - start, threadName, fileName, outcome);
+            }
+            if (!outcome.isConflict()) {
+                return outcome;
+            }
+            if (attempt >= retryPolicy.getMaxRetries()) {
+                gaveUp.increment();
+                return outcome;
+            }
+            try {
+                Thread.sleep(retryPolicy.delayMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                gaveUp.increment();
+                return outcome;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * @param trace records every attempt from now on, null to stop. The caller closes it
+     */
+    public void setTrace(TransactionTrace.Writer trace) {
+        this.trace = trace;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param outcome the outcome
+     * @return how many attempts ended with it
+     */
+    public long getAttempts(Outcome outcome) {
+        return attempts.get(outcome).sum();
+    }
+
+    /**
+     * @return all attempts, the retries included
+     */
+    public long getAttempts() {
+        return attempts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * @return the transactions given to run, without the retries
+     */
+    public long getTransactions() {
+        return transactions.sum();
+    }
+
+    /**
+     * @return the transactions that committed in the end
+     */
+    public long getCommits() {
+        return getAttempts(Outcome.COMMITTED);
+    }
+
+    /**
+     * @return the attempts that conflicted, aborted or rolled back
+     */
+    public long getConflicts() {
+        return getAttempts(Outcome.ABORTED) + getAttempts(Outcome.ROLLED_BACK);
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the transactions that still conflicted after their last retry, their write is lost
+     */
+    public long getGaveUp() {
+        return gaveUp.sum();
+    }
+
+    /**
+     * @return retries / commits, 0 if nothing committed
+     */
+    public double getRetriesPerCommit() {
+        long commits = getCommits();
+        return commits == 0 ? 0 : (double) getRetries() / commits;
+    }
+
+    /**
+     * @param elapsedNanos the time the transactions ran
+     * @return the committed transactions per second
+     */
+    public double getGoodput(long elapsedNanos) {
+        return getCommits() / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    /**
+     * sets the counters back to 0, f.e. between two simulations
+     */
+    public void reset() {
+        attempts.values().forEach(LongAdder::reset);
+        transactions.reset();
+        retries.reset();
+        gaveUp.reset();
+    }
+}
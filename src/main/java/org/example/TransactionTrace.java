@@ -0,0 +1,172 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a binary trace of transaction attempts, recorded by the TransactionRunner (trace=file) and replayed by the Validator
+ * (replay=file) against any backend.
+ *
+ * the file starts with MAGIC and VERSION, then one record per attempt:
+ *   varint   micros since the start of the previous record, zigzag encoded as it can be negative
+ *   varint   micros between notifyWrite and appendToFile, the time the user spent writing
+ *   varint   id of the thread, a new id is followed by the name (writeUTF)
+ *   varint   id of the file, a new id is followed by the name (writeUTF)
+ *   byte     the Outcome
+ * the names are written once, so a record is about 6 bytes. Records are written when the attempt is done, read
+ * sorts them by their start
+ */
+public class TransactionTrace {
+
+    private static final int MAGIC = 0x5a545243; // ZTRC
+    private static final int VERSION = 1;
+
+    /**
+     * one attempt of a transaction
+     * @param startMicros micros since the start of the trace
+     * @param durationMicros the time between notifyWrite and appendToFile
+     */
+    public record Entry(long startMicros, long durationMicros, String threadName, String fileName, Outcome outcome) {
+    }
+
+    private TransactionTrace() {
+    }
+
+    /**
+     * reads a whole trace, a broken last record (f.e. the program was killed while recording) is ignored
+     * @param path the trace file
+     * @return the attempts in the order of their start
+     */
+    public static List<Entry> read(Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<String> threadNames = new ArrayList<>();
+        List<String> fileNames = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a transaction trace");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(path + " has trace version " + version + ", expected " + VERSION);
+            }
+            long start = 0;
+            while (true) {
+                try {
+                    long delta = readVarLong(in);
+                    start += (delta >>> 1) ^ -(delta & 1);
+                    long duration = readVarLong(in);
+                    String threadName = readName(in, threadNames);
+                    String fileName = readName(in, fileNames);
+                    Outcome outcome = Outcome.values()[in.readUnsignedByte()];
+                    entries.add(new Entry(start, duration, threadName, fileName, outcome));
+                } catch (EOFException e) {
+                    entries.sort(Comparator.comparingLong(Entry::startMicros));
+                    return entries;
+                }
+            }
+        }
+    }
+
+    private static String readName(DataInputStream in, List<String> names) throws IOException {
+        int id = (int) readVarLong(in);
+        if (id == names.size()) {
+            names.add(in.readUTF());
+        }
+        return names.get(id);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * records the attempts of all threads into one file, the records are written in the order record is called
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Integer> threadIds = new HashMap<>();
+        private final Map<String, Integer> fileIds = new HashMap<>();
+        private long lastStartMicros;
+
+        /**
+         * @param path the trace file, overwritten
+         */
+        public Writer(Path path) {
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not create trace " + path, e);
+            }
+        }
+
+        /**
+         * @param startNanos System.nanoTime() at notifyWrite
+         * @param durationNanos time between notifyWrite and appendToFile
+         */
+        public synchronized void record(long startNanos, long durationNanos, String threadName, String fileName, Outcome outcome) {
+            long startMicros = (startNanos - this.startNanos) / 1000;
+            long delta = startMicros - lastStartMicros;
+            try {
+                writeVarLong((delta << 1) ^ (delta >> 63));
+                writeVarLong(Math.max(0, durationNanos / 1000));
+                writeName(threadName, threadIds);
+                writeName(fileName, fileIds);
+                out.writeByte(outcome.ordinal());
+                lastStartMicros = startMicros;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void writeName(String name, Map<String, Integer> ids) throws IOException {
+            Integer id = ids.get(name);
+            if (id != null) {
+                writeVarLong(id);
+                return;
+            }
+            writeVarLong(ids.size());
+            out.writeUTF(name);
+            ids.put(name, ids.size());
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        @Override
+        public synchronized void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * the journal of the undo log transactions (TransactionMode.UNDO_LOG). Before the mapper appends to a file it writes
+ * "A id offset fileName", the length of the file before the append, and after the append "C id". If the program dies in
+ * between, the file might hold half of the content, on the next start the mapper truncates the file of every A without
+ * its C to the offset. Appends to the same file are done under the file lock, so there is at most one open A per file.
+ *
+ * with a TransactionJournal the mapper records the appends there and this journal is only read once, to undo what a
+ * run without one left behind.
+ *
+ * one journal belongs to one mapper, it has to live outside of the dataset, otherwise a rollback would roll it back as well.
+ * It is cleared after the recovery and whenever no append is open and it grew larger than MAX_SIZE, so it stays small
+ */
+public class UndoJournal implements AutoCloseable {
+
+    private static final long MAX_SIZE = 1 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    /**
+     * appends between their A and C record
+     */
+    private int open;
+    private volatile boolean force;
+
+    /**
+     * opens the journal, the records of the last run are kept until clear is called
+     * @param path the journal file, created if missing
+     */
+    public UndoJournal(Path path) {
+        this.path = path;
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not open undo journal " + path, e);
+        }
+    }
+
+    /**
+     * @param force true if every record is forced to disk before the append, only then the journal survives a power loss
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * written right before an append, under the file lock
+     * @param transactionId the id of the transaction
+     * @param fileName well, the fileName
+     * @param offset the length of the file before the append
+     */
+    public synchronized void logAppend(long transactionId, String fileName, long offset) throws IOException {
+        write("A " + transactionId + " " + offset + " " + fileName + "\n");
+        open++;
+    }
+
+    /**
+     * written after the append is done
+     * @param transactionId the id of the transaction
+     */
+    public synchronized void logDone(long transactionId) throws IOException {
+        write("C " + transactionId + "\n");
+        open--;
+        if (open == 0 && channel.size() > MAX_SIZE) {
+            channel.truncate(0);
+        }
+    }
+
+    private void write(String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * the appends of the last run that have an A but no C record, a broken last line is ignored
+     * @return fileName -> the length the file had before the append
+     */
+    public synchronized Map<String, Long> readUnfinished() throws IOException {
+        Map<String, String[]> unfinished = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] parts = line.split(" ", 4);
+            if (parts.length == 4 && parts[0].equals("A")) {
+                unfinished.put(parts[1], parts);
+            } else if (parts.length == 2 && parts[0].equals("C")) {
+                unfinished.remove(parts[1]);
+            }
+        }
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        for (String[] record : unfinished.values()) {
+            try {
+                offsets.putIfAbsent(record[3], Long.parseLong(record[2]));
+            } catch (NumberFormatException e) {
+                System.err.println("undo journal " + path + ": skipping broken record " + String.join(" ", record));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * removes all records, called once the unfinished appends are undone
+     */
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        open = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -3,8 +3,10 @@ package org.example;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -20,6 +22,15 @@ public class Validator {
 
     private static int numberOfThreads = 3;
     private static int numberOfFiles = 6;
+    /**
+     * picks the files, uniform unless distribution= is given
+     */
+    private static KeyDistribution distribution = KeyDistribution.uniform(numberOfFiles);
+    private static Arguments arguments = new Arguments(new String[0]);
+    /**
+     * true if a thread stops writing once its transaction is cancelled, see CancellationToken
+     */
+    private static boolean earlyAbort = true;
     private static double meanWritingTime = 2000; // milliseconds
     private static double stVarWritingTime = 1500; // milliseconds
 
@@ -33,17 +44,42 @@ public class Validator {
     private static final List<Integer> stVarWritingTimeParameters= new LinkedList<>(List.of(200,1800,400,100,400,400,400,400,400,400));
 
     private static List<Integer> transactionsAttempted= new LinkedList<>();
-    private static List<Integer> succesfullWrites= new LinkedList<>();
-    private static List<Integer> conflictsEncounteredBySingleTransactions= new LinkedList<>();
-    private static List<Integer> rollbacks = new LinkedList<>();
+    private static List<Long> succesfullWrites= new LinkedList<>();
+    private static List<Long> conflictsEncounteredBySingleTransactions= new LinkedList<>();
+    private static List<Long> rollbacks = new LinkedList<>();
     private static List<Double> meanRollbackTimes = new LinkedList<>();
     private static List<Double> conflictRates= new LinkedList<>();
+    private static List<Double> commitsPerSecond= new LinkedList<>();
+    private static List<Double> snapshotCallsPerTransaction= new LinkedList<>();
+    private static List<Double> victimsPerRollback= new LinkedList<>();
+    private static List<RollbackMode> rollbackModeColumn= new LinkedList<>();
+    /**
+     * rows like ROLLBACK_p99_ms, one value per simulation, filled by collectPercentiles
+     */
+    private static Map<String, List<Double>> phasePercentiles= new LinkedHashMap<>();
 
 
-    // Metrics Collection
-    private static AtomicInteger conflictCounter = new AtomicInteger(0);
-    private static AtomicInteger successCounter = new AtomicInteger(0);
-    private static AtomicInteger rollbackCounter = new AtomicInteger(0);
+    /**
+     * the files are spread over the shards, every shard is a dataset of its own, see ShardRouter
+     */
+    private static ShardRouter mapper;
+
+    // Metrics Collection, the runner counts the outcome of every attempt
+    private static TransactionRunner runner;
+    private static List<Long> attemptsWithRetries= new LinkedList<>();
+    private static List<Double> retriesPerCommit= new LinkedList<>();
+    private static List<Long> gaveUp= new LinkedList<>();
+    private static List<Double> attemptsPerSecond= new LinkedList<>();
+    private static List<Double> commitGroupSizes= new LinkedList<>();
+    private static List<Double> snapshotsPerTransaction= new LinkedList<>();
+    private static List<Long> exclusiveAdmissions= new LinkedList<>();
+    private static List<Long> earlyAbortColumn= new LinkedList<>();
+    private static List<Double> savedWriteSeconds= new LinkedList<>();
+    private static List<Double> discardedWorkSeconds= new LinkedList<>();
+    private static List<Long> peakLiveSnapshots= new LinkedList<>();
+    private static List<Long> reapedTransactions= new LinkedList<>();
+    private static List<Long> budgetWaits= new LinkedList<>();
+    private static List<Long> modeSwitches= new LinkedList<>();
 
 
 
@@ -53,9 +89,8 @@ public class Validator {
         numberOfFiles= numberOfFilesParameters.get(iteration);
         meanWritingTime= meanWritingTimeParameters.get(iteration);
         stVarWritingTime= stVarWritingTimeParameters.get(iteration);
-        conflictCounter= new AtomicInteger(0);
-        successCounter= new AtomicInteger(0);
-        rollbackCounter= new AtomicInteger(0);
+        distribution= KeyDistribution.fromArguments(arguments, numberOfFiles);
+        runner.reset();
 
         System.out.println("########################################\n" +
                 "\nStarting Simulation Iteration "+iteration+" with Parameters \n" +
@@ -64,32 +99,282 @@ public class Validator {
                 "numberOfFiles= "+ numberOfFiles+"\n"+
                 "meanWritingTime= "+ meanWritingTime+"ms\n"+
                 "stDWritingTime="+ stVarWritingTime+"ms\n"+
+                "retries= "+ runner.getRetryPolicy()+"\n"+
                 "########################################");
 
         createFiles();
 
     }
 
+    /**
+     * arguments are key=value pairs, see SnapshotBackend.fromArguments for the backend selection
+     * f.e. backend=dir root=/tmp/myfs runs the simulation without zfs
+     * force=true forces every commit to disk before it counts as successfull
+     * external=true detects changes of other programs via modification time and size, besides the versions of the mapper
+     * commands=spawn|persistent shells=N selects how the zfs commands are executed, see CommandExecutor
+     * batchWindow=micros batchSize=N groups snapshot creation and deletion of all threads into single zfs calls
+     * reconcile=seconds is the period in which the in memory snapshots are compared with the real ones, default 30
+     * commandLatency=N only compares the latency of both command modes on N commands and writes commandLatency.csv
+     * mode=virtual runs the writers on virtual threads instead, see runVirtualWriters
+     * shards=N spreads the files over N datasets, a rollback then only aborts the transactions of its own shard
+     * rollback=dataset|file|dataset,file how conflicts are rolled back, with both the simulations run once per mode
+     * retries=N backoff=none|exponential|jitter backoffBase=ms backoffMax=ms starts conflicted transactions again, see RetryPolicy
+     * groupCommit=micros commits the appends to the same file arriving within the window together
+     * transactions=undo takes no snapshots at all, the appends are undone by truncating the file, see TransactionMode
+     * distribution=uniform|zipf|hotspot|sequential picks the files the threads write to, see KeyDistribution
+     * replay=file replays a recorded TransactionTrace against the backend instead of the simulations, see Scenario
+     * earlyAbort=false lets the threads write for their whole writing time even if their transaction is already lost
+     * lease=ms reapEvery=ms maxSnapshots=N end stuck transactions and bound the number of snapshots, see ShardRouter.fromArguments
+     * journal=dir keeps a TransactionJournal in dir, see ShardRouter.fromArguments. deleteAllSnapshots=true deletes every
+     * snapshot of the dataset before each simulation like before the journal, f.e. the ones of runs without journal
+     * scenarios=file runs the scenarios of the file instead of the lists above, parallel=N of them at once (default all),
+     * each on its own dataset, the results go to results=prefix (default scenarioResults) .csv and .jsonl, see Scenario
+     */
     public static void main(String[] args) {
 
+        arguments = new Arguments(args);
+        earlyAbort = arguments.getBoolean("earlyAbort", true);
+        if (arguments.has("commandLatency")) {
+            String defaultCommand = arguments.get("backend", "zfs").equals("zfs") ? "sudo zfs list -t snapshot" : "true";
+            compareCommandLatency(arguments.get("latencyCommand", defaultCommand), arguments.getInt("commandLatency", 200),
+                    arguments.getInt("shells", 4));
+            return;
+        }
+        ZFSMapper.setCommandExecutor(CommandExecutor.fromArguments(arguments));
+        if (arguments.has("scenarios") || arguments.has("replay")) {
+            runScenarios(arguments);
+            ZFSMapper.setCommandExecutor(null);
+            return;
+        }
+        if (arguments.get("mode", "threads").equals("virtual")) {
+            runVirtualWriters(arguments);
+            ZFSMapper.setCommandExecutor(null);
+            return;
+        }
+
+        List<String> rollbackModes = arguments.getList("rollback", "dataset");
+        mapper = ShardRouter.fromArguments(arguments.with("rollback", rollbackModes.get(0)));
+        mapper.startReconcile(arguments.getInt("reconcile", 30));
+        runner = new TransactionRunner(mapper, RetryPolicy.fromArguments(arguments, 0));
+
+        // every parameter configuration runs once per rollback mode, f.e. rollback=dataset,file compares both
+        for (String rollbackMode : rollbackModes) {
+            mapper.setRollbackMode(RollbackMode.fromName(rollbackMode));
 
-        // Delete possible remaining Snapshots from testing and debug, create files for the simulation
+            for (int i = 0; i < threadParameters.size(); i++) {
+                deleteAllSnapshotsIfAsked();
+                initSimulation(i);
+                rollbackModeColumn.add(RollbackMode.fromName(rollbackMode));
+
+
+                // Start threads for concurrent access
+                mapper.getMetrics().reset();
+                if (mapper.getScheduler() != null) {
+                    mapper.getScheduler().reset();
+                }
+                long backendCallsBefore = getBackendCalls();
+                long simulationStart = System.nanoTime();
+                WriterSimulation simulation = writerSimulation();
+                Map<String, Runnable> writers = new LinkedHashMap<>();
+                for (int y = 0; y < numberOfThreads; y++) {
+                    String threadName = "Thread-" + y;
+                    writers.put(threadName, () -> simulation.runTransactions(threadName, numberOfIterations));
+                }
+                // returns once all threads are finished
+                WriterSimulation.runThreads(writers);
 
-        for (int i = 0; i < threadParameters.size(); i++) {
-            ZFSMapper.deleteAllSnapshot();
-            initSimulation(i);
+                // Display metrics after simulation
+                printMetrics(System.nanoTime() - simulationStart, getBackendCalls() - backendCallsBefore);
+            }
+        }
 
+        writeToCSV();
+        mapper.close();
+        // closes the shells
+        ZFSMapper.setCommandExecutor(null);
+    }
 
-            // Start threads for concurrent access
+    /**
+     * only with deleteAllSnapshots=true, otherwise the snapshots of the dataset that are not the mapper's are kept
+     */
+    private static void deleteAllSnapshotsIfAsked() {
+        if (arguments.getBoolean("deleteAllSnapshots", false)) {
+            mapper.deleteAllSnapshot();
+        }
+    }
+
+    /**
+     * runs the scenarios of the file given by scenarios=, see Scenario. Every scenario has its own mapper on its own
+     * dataset, so parallel=N of them can run at the same time, the results are written as soon as a scenario is done
+     * @param arguments the program arguments, the defaults of all scenarios
+     */
+    private static void runScenarios(Arguments arguments) {
+        List<Scenario> scenarios;
+        try {
+            scenarios = arguments.has("scenarios")
+                    ? Scenario.load(Path.of(arguments.get("scenarios", "scenarios.txt")), arguments)
+                    : List.of(new Scenario("replay", arguments));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (scenarios.isEmpty()) {
+            System.err.println("no scenarios in " + arguments.get("scenarios", "scenarios.txt"));
+            return;
+        }
+        int parallel = arguments.getInt("parallel", scenarios.size());
+        String prefix = arguments.get("results", "scenarioResults");
+        try (ScenarioReport report = new ScenarioReport(prefix);
+             ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallel))) {
+            for (Scenario scenario : scenarios) {
+                executor.submit(() -> {
+                    try {
+                        report.write(scenario.run());
+                    } catch (Exception e) {
+                        System.err.println("scenario " + scenario.getName() + " failed");
+                        e.printStackTrace();
+                    }
+                });
+            }
+        }
+        System.out.println("results of " + scenarios.size() + " scenarios in " + prefix + ".csv and " + prefix + ".jsonl");
+    }
+
+    /**
+     * simulation at a larger scale, every writer is a virtual thread so 10k-100k writers are possible. For every backend
+     * of backends=dir,zfs and every amount of writers=1000,10000,100000 each writer executes
+     * iterations=5 transactions on files=1000 files with writing times given by mean=600 std=400 (ms).
+     * Shows how commit throughput and rollback latency behave with growing concurrency, written to
+     * validatorResultsVirtualThreads.csv
+     * @param arguments the program arguments, the backend specific ones (root, dataset...) apply to all backends
+     */
+    private static void runVirtualWriters(Arguments arguments) {
+        List<String> backends = arguments.getList("backends", arguments.get("backend", "zfs"));
+        List<String> writerCounts = arguments.getList("writers", "1000,10000,100000");
+        int iterations = arguments.getInt("iterations", 5);
+        numberOfFiles = arguments.getInt("files", 1000);
+        distribution = KeyDistribution.fromArguments(arguments, numberOfFiles);
+        meanWritingTime = arguments.getInt("mean", 600);
+        stVarWritingTime = arguments.getInt("std", 400);
+
+        List<String> backendColumn = new LinkedList<>();
+        List<Integer> writersColumn = new LinkedList<>();
+        List<Integer> attempted = new LinkedList<>();
+        List<Long> commits = new LinkedList<>();
+        List<Long> conflicts = new LinkedList<>();
+        List<Long> rollbackColumn = new LinkedList<>();
+        List<Double> retryColumn = new LinkedList<>();
+        List<Double> throughput = new LinkedList<>();
+        List<Double> rollbackLatency = new LinkedList<>();
+        List<Double> victims = new LinkedList<>();
+        Map<String, List<Double>> percentiles = new LinkedHashMap<>();
+
+        List<String> rollbackModes = arguments.getList("rollback", "dataset");
+        List<String> rollbackModeRow = new LinkedList<>();
+
+        for (String backend : backends) {
+            mapper = ShardRouter.fromArguments(arguments.with("backend", backend).with("rollback", rollbackModes.get(0)));
+            mapper.startReconcile(arguments.getInt("reconcile", 30));
+            runner = new TransactionRunner(mapper, RetryPolicy.fromArguments(arguments, 0));
+            for (String rollbackMode : rollbackModes) {
+                mapper.setRollbackMode(RollbackMode.fromName(rollbackMode));
+                for (String writerCount : writerCounts) {
+                    int writers = Integer.parseInt(writerCount.trim());
+                    deleteAllSnapshotsIfAsked();
+                    createFiles();
+                    runner.reset();
+                    mapper.getMetrics().reset();
+                    if (mapper.getScheduler() != null) {
+                        mapper.getScheduler().reset();
+                    }
+                    System.out.println("virtual threads: backend=" + backend + " rollback=" + rollbackMode + " writers=" + writers
+                            + " iterations=" + iterations);
+
+                    long start = System.nanoTime();
+                    WriterSimulation simulation = writerSimulation();
+                    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                        for (int w = 0; w < writers; w++) {
+                            String writerName = "Writer-" + w;
+                            executor.submit(() -> simulation.runTransactions(writerName, iterations));
+                        }
+                    }
+                    double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+                    backendColumn.add(backend);
+                    rollbackModeRow.add(rollbackMode);
+                    writersColumn.add(writers);
+                    attempted.add(writers * iterations);
+                    commits.add(runner.getCommits());
+                    conflicts.add(runner.getConflicts());
+                    rollbackColumn.add(runner.getAttempts(Outcome.ROLLED_BACK));
+                    throughput.add(runner.getCommits() / seconds);
+                    retryColumn.add(runner.getRetriesPerCommit());
+                    rollbackLatency.add(mapper.calculateMeanTime());
+                    victims.add(mapper.getMetrics().getMeanRollbackVictims());
+                    collectPercentiles(percentiles);
+                    System.out.println("commits/s " + (runner.getCommits() / seconds) + ", conflicts " + runner.getConflicts()
+                            + ", rollbacks " + runner.getAttempts(Outcome.ROLLED_BACK) + ", retries/commit " + runner.getRetriesPerCommit()
+                            + ", mean rollback " + mapper.calculateMeanTime() + "ms");
+                }
+            }
+            mapper.close();
+        }
+
+        String fileName = "validatorResultsVirtualThreads.csv";
+        try (FileWriter writer = new FileWriter(fileName)) {
+            writeListToCSV(writer, "backend", backendColumn);
+            writeListToCSV(writer, "shards", Collections.nCopies(backendColumn.size(), arguments.getInt("shards", 1)));
+            writeListToCSV(writer, "rollbackMode", rollbackModeRow);
+            writeListToCSV(writer, "writers", writersColumn);
+            writeListToCSV(writer, "TA_Attempted", attempted);
+            writeListToCSV(writer, "success_Writes", commits);
+            writeListToCSV(writer, "conflicts", conflicts);
+            writeListToCSV(writer, "rollbacks", rollbackColumn);
+            writeListToCSV(writer, "commits_per_sec", throughput);
+            writeListToCSV(writer, "retries_per_commit", retryColumn);
+            writeListToCSV(writer, "mean_Rollback", rollbackLatency);
+            writeListToCSV(writer, "victims_per_Rollback", victims);
+            for (Map.Entry<String, List<Double>> row : percentiles.entrySet()) {
+                writeListToCSV(writer, row.getKey(), row.getValue());
+            }
+            System.out.println("CSV file created successfully: " + fileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * executes the same command repeatedly, once with a process per command and once with the persistent shells
+     * from numberOfShells threads at the same time, just like the simulation threads would do
+     * @param command the command to measure
+     * @param repetitions how often the command is executed per mode
+     * @param numberOfShells the number of shells of the persistent executor and the number of calling threads
+     */
+    private static void compareCommandLatency(String command, int repetitions, int numberOfShells) {
+        List<String> modes = List.of("spawn", "persistent");
+        List<Double> meanLatencies = new LinkedList<>();
+        List<Double> maxLatencies = new LinkedList<>();
+        List<Double> commandsPerSecond = new LinkedList<>();
+        for (String mode : modes) {
+            CommandExecutor executor = mode.equals("spawn") ? new SpawningCommandExecutor() : new PersistentShellExecutor(numberOfShells);
+            // warm up, the shells are started and the jvm has the code compiled
+            executor.execute(command);
+            long[] latencies = new long[repetitions];
+            AtomicInteger next = new AtomicInteger(0);
             List<Thread> threads = new ArrayList<>();
-            for (int y = 0; y < numberOfThreads; y++) {
-                String threadName = "Thread-" + y;
-                Thread thread = new Thread(() -> runTransactions(threadName));
+            long start = System.nanoTime();
+            for (int t = 0; t < numberOfShells; t++) {
+                Thread thread = new Thread(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < repetitions) {
+                        long commandStart = System.nanoTime();
+                        executor.execute(command);
+                        latencies[i] = System.nanoTime() - commandStart;
+                    }
+                });
                 threads.add(thread);
                 thread.start();
             }
-
-            // Wait for all threads to finish
             for (Thread thread : threads) {
                 try {
                     thread.join();
@@ -97,76 +382,69 @@ public class Validator {
                     e.printStackTrace();
                 }
             }
-
-            // Display metrics after simulation
-            printMetrics();
+            long elapsed = System.nanoTime() - start;
+            executor.close();
+
+            double mean = Arrays.stream(latencies).average().orElse(0) / 1_000_000.0;
+            double max = Arrays.stream(latencies).max().orElse(0) / 1_000_000.0;
+            double throughput = repetitions / (elapsed / 1_000_000_000.0);
+            System.out.println(mode + ": mean " + mean + "ms, max " + max + "ms, " + throughput + " commands/s for '" + command + "'");
+            meanLatencies.add(mean);
+            maxLatencies.add(max);
+            commandsPerSecond.add(throughput);
         }
 
-        writeToCSV();
+        try (FileWriter writer = new FileWriter("commandLatency.csv")) {
+            writeListToCSV(writer, "mode", modes);
+            writeListToCSV(writer, "mean_ms", meanLatencies);
+            writeListToCSV(writer, "max_ms", maxLatencies);
+            writeListToCSV(writer, "commands_per_sec", commandsPerSecond);
+            System.out.println("CSV file created successfully: commandLatency.csv");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 
 
+    /**
+     * @return the calls of the batching backends of all shards to zfs so far, -1 if batching is off
+     */
+    private static long getBackendCalls() {
+        long calls = -1;
+        for (ZFSMapper shard : mapper.getShards()) {
+            if (shard.getBackend() instanceof BatchingSnapshotBackend batchingBackend) {
+                calls = Math.max(calls, 0) + batchingBackend.getBackendCalls();
+            }
+        }
+        return calls;
+    }
+
     /**
      * Creates a set of files on which threads will work.
      */
     private static void createFiles() {
+        long start = System.nanoTime();
         for (int i = 0; i < numberOfFiles; i++) {
             String fileName = "file" + i + ".txt";
-            ZFSMapper.createFileWithContent(fileName, "Initial content of " + fileName);
+            mapper.createFileWithContent(fileName, "Initial content of " + fileName);
         }
+        System.out.println("created " + numberOfFiles + " files in " + (System.nanoTime() - start) / 1_000_000 + "ms");
     }
 
     /**
-     * Executes transactions for each thread
-     * @param threadName The name of the thread
+     * the writers with the parameters of the current simulation, a thread reports every 50 transactions
      */
-    private static void runTransactions(String threadName) {
-
-        for (int i = 0; i < numberOfIterations; i++) {
-            if((i+1)%50==0){
-                System.out.println("Iter "+ i+" reached on " + Thread.currentThread().getName());
-            }
-            // Randomly select a file to write to
-            int file = ThreadLocalRandom.current().nextInt(0,numberOfFiles);
-            String fileName = "file" + file + ".txt";
-            String content = threadName+" writes on iteration "+ i;
-
-            // Notify ZFSMapper about the writing start
-            TransactionInformation transactionInformation= ZFSMapper.notifyWrite(threadName, fileName);
-
-            // Simulate writing time using Gaussian distribution
-            long writingTime = (long) Math.max(100, ThreadLocalRandom.current().nextGaussian() * stVarWritingTime + meanWritingTime);
-            try {
-                Thread.sleep(writingTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            //0 = success 1=conflict but solved somewhere else 2=rollback
-            int code= ZFSMapper.appendToFile(transactionInformation, content);
-            switch(code){
-                case 0:{
-                    successCounter.incrementAndGet();
-                    break;
-                }
-                case 1:{
-                    conflictCounter.incrementAndGet();
-                    break;
-                }
-                case 2:{
-                    conflictCounter.incrementAndGet();
-                    rollbackCounter.incrementAndGet();
-                    break;
-                }
-            }
-        }
+    private static WriterSimulation writerSimulation() {
+        return new WriterSimulation(runner, mapper.getMetrics(), distribution, meanWritingTime, stVarWritingTime, earlyAbort, 50);
     }
 
     /**
      * Prints metrics of the simulation
+     * @param elapsedNanos wall clock time of the simulation, used for the commits per second
+     * @param backendCalls snapshot create/destroy calls of the batching backend during the simulation, -1 if not batching
      */
-    private static void printMetrics() {
+    private static void printMetrics(long elapsedNanos, long backendCalls) {
 
 
         System.out.println("Simulation Metrics:");
@@ -175,20 +453,86 @@ public class Validator {
                 "(Successfull Writes) actual successfull writes but also those that were rollback" +
                 "\n conflict rate = conflicts / (total transactions attempted)");
         System.out.println("Total Transactions Attempted: " + (numberOfThreads * numberOfIterations));
-        System.out.println("Successful Writes (including rollback affected): " + successCounter.get());
-        System.out.println("Conflicts Occurred: " + conflictCounter.get());
-        System.out.println("Rollbacks Executed: " + rollbackCounter.get());
-        double meanRollbackTime= ZFSMapper.calculateMeanTime();
+        System.out.println("Attempts including retries: " + runner.getAttempts());
+        System.out.println("Successful Writes (including rollback affected): " + runner.getCommits());
+        System.out.println("Conflicts Occurred: " + runner.getConflicts());
+        System.out.println("Rollbacks Executed: " + runner.getAttempts(Outcome.ROLLED_BACK));
+        System.out.println("Retries per commit: " + runner.getRetriesPerCommit() + ", gave up: " + runner.getGaveUp());
+        double meanVictims = mapper.getMetrics().getMeanRollbackVictims();
+        System.out.println("Transactions aborted per rollback: " + meanVictims);
+        double meanRollbackTime= mapper.calculateMeanTime();
         System.out.println("Mean rollback Time in ms: "+ meanRollbackTime);
-        double conflictRate = ((double) conflictCounter.get() / (numberOfThreads * numberOfIterations)) * 100;
+        double conflictRate = ((double) runner.getConflicts() / runner.getAttempts()) * 100;
         System.out.println("Conflict Rate: " + conflictRate + "%");
+        double commitRate = runner.getGoodput(elapsedNanos);
+        System.out.println("Commits per second (goodput): " + commitRate);
+        double attemptRate = runner.getAttempts() / (elapsedNanos / 1_000_000_000.0);
+        System.out.println("Attempts per second: " + attemptRate);
+        double meanCommitGroup = mapper.getMetrics().getMeanCommitGroupSize();
+        if (meanCommitGroup > 0) {
+            System.out.println("Transactions per group commit: " + meanCommitGroup);
+            commitGroupSizes.add(meanCommitGroup);
+        }
+        double snapshotsPerAttempt = (double) mapper.getMetrics().get(TransactionPhase.SNAPSHOT_CREATE).getCount() / runner.getAttempts();
+        System.out.println("Snapshots per attempt: " + snapshotsPerAttempt + ", shared snapshots: " + mapper.getMetrics().getSharedSnapshots());
+        snapshotsPerTransaction.add(snapshotsPerAttempt);
+        long earlyAborts = mapper.getMetrics().getEarlyAborts();
+        System.out.println("Early aborts: " + earlyAborts + ", writing time saved: " + mapper.getMetrics().getSavedWriteMillis() / 1000.0 + "s");
+        earlyAbortColumn.add(earlyAborts);
+        savedWriteSeconds.add(mapper.getMetrics().getSavedWriteMillis() / 1000.0);
+        double discardedWork = mapper.getMetrics().getDiscardedWorkSeconds();
+        System.out.println("Conflict policy: " + mapper.getShards().get(0).getConflictPolicy() + ", discarded work: " + discardedWork + "s");
+        discardedWorkSeconds.add(discardedWork);
+        TransactionMetrics metrics = mapper.getMetrics();
+        System.out.println("Live snapshots: " + metrics.getLiveSnapshots() + " (peak " + metrics.getPeakLiveSnapshots()
+                + "), waits for the snapshot budget: " + metrics.get(TransactionPhase.SNAPSHOT_BUDGET).getCount()
+                + ", reaped transactions/snapshots: " + metrics.getReapedTransactions() + "/" + metrics.getReapedSnapshots());
+        peakLiveSnapshots.add(metrics.getPeakLiveSnapshots());
+        reapedTransactions.add(metrics.getReapedTransactions());
+        budgetWaits.add(metrics.get(TransactionPhase.SNAPSHOT_BUDGET).getCount());
+        AdaptiveScheduler scheduler = mapper.getScheduler();
+        if (scheduler != null) {
+            System.out.println("Admissions optimistic/exclusive/queued/timed out: " + scheduler.getOptimisticAdmissions() + "/"
+                    + scheduler.getExclusiveAdmissions() + "/" + scheduler.getQueuedAdmissions() + "/" + scheduler.getTimedOutAdmissions()
+                    + ", switches to exclusive/optimistic: " + scheduler.getSwitchesToExclusive() + "/" + scheduler.getSwitchesToOptimistic());
+            System.out.println("Files admitted exclusively at the end (conflict rate): " + scheduler.getExclusiveFiles());
+            exclusiveAdmissions.add(scheduler.getExclusiveAdmissions());
+            modeSwitches.add(scheduler.getSwitchesToExclusive() + scheduler.getSwitchesToOptimistic());
+        }
+        if (backendCalls >= 0) {
+            double callsPerTransaction = (double) backendCalls / (numberOfThreads * numberOfIterations);
+            System.out.println("Batched snapshot calls per transaction: " + callsPerTransaction);
+            snapshotCallsPerTransaction.add(callsPerTransaction);
+        }
 
         transactionsAttempted.add((numberOfThreads * numberOfIterations));
-        succesfullWrites.add(successCounter.get());
-        conflictsEncounteredBySingleTransactions.add(conflictCounter.get());
-        rollbacks.add(rollbackCounter.get());
+        attemptsWithRetries.add(runner.getAttempts());
+        succesfullWrites.add(runner.getCommits());
+        conflictsEncounteredBySingleTransactions.add(runner.getConflicts());
+        rollbacks.add(runner.getAttempts(Outcome.ROLLED_BACK));
+        retriesPerCommit.add(runner.getRetriesPerCommit());
+        gaveUp.add(runner.getGaveUp());
+        attemptsPerSecond.add(attemptRate);
         meanRollbackTimes.add(meanRollbackTime);
+        victimsPerRollback.add(meanVictims);
         conflictRates.add(conflictRate);
+        commitsPerSecond.add(commitRate);
+        collectPercentiles(phasePercentiles);
+    }
+
+    /**
+     * adds p50, p99, p99.9 and max of every transaction phase of the current simulation in ms to the rows
+     * @param rows the rows of the csv, key = row name
+     */
+    private static void collectPercentiles(Map<String, List<Double>> rows) {
+        for (TransactionPhase phase : TransactionPhase.values()) {
+            LatencyHistogram histogram = mapper.getMetrics().get(phase);
+            for (double percentile : TransactionMetrics.PERCENTILES) {
+                String name = phase + "_p" + String.valueOf(percentile).replace(".0", "").replace(".", "") + "_ms";
+                rows.computeIfAbsent(name, key -> new LinkedList<>()).add(histogram.getPercentileNanos(percentile) / 1_000_000.0);
+            }
+            rows.computeIfAbsent(phase + "_max_ms", key -> new LinkedList<>()).add(histogram.getMaxNanos() / 1_000_000.0);
+        }
     }
 
 
@@ -198,16 +542,22 @@ public class Validator {
         try (FileWriter writer = new FileWriter(fileName)) {
             // Write header with iteration numbers
             writer.append("Name");
-            for (int i = 1; i <= threadParameters.size(); i++) {
+            for (int i = 1; i <= transactionsAttempted.size(); i++) {
                 writer.append(",Iteration").append(String.valueOf(i));
             }
             writer.append("\n");
 
-            // Write parameters
-            writeListToCSV(writer, "threads", threadParameters);
-            writeListToCSV(writer, "numberOfFiles", numberOfFilesParameters);
-            writeListToCSV(writer, "meanWritingTime", meanWritingTimeParameters);
-            writeListToCSV(writer, "stVarWritingTime", stVarWritingTimeParameters);
+            // Write parameters, repeated for every rollback mode
+            writeListToCSV(writer, "threads", perRollbackMode(threadParameters));
+            writeListToCSV(writer, "numberOfFiles", perRollbackMode(numberOfFilesParameters));
+            writeListToCSV(writer, "meanWritingTime", perRollbackMode(meanWritingTimeParameters));
+            writeListToCSV(writer, "stVarWritingTime", perRollbackMode(stVarWritingTimeParameters));
+            writeListToCSV(writer, "shards", Collections.nCopies(transactionsAttempted.size(), mapper.getShards().size()));
+            writeListToCSV(writer, "rollbackMode", rollbackModeColumn);
+            writeListToCSV(writer, "transactionMode", Collections.nCopies(transactionsAttempted.size(),
+                    mapper.getShards().get(0).getTransactionMode()));
+            writeListToCSV(writer, "conflictPolicy", Collections.nCopies(transactionsAttempted.size(),
+                    mapper.getShards().get(0).getConflictPolicy()));
 
             // Write results
             writeListToCSV(writer, "TA_Attempted", transactionsAttempted);
@@ -215,7 +565,33 @@ public class Validator {
             writeListToCSV(writer, "conflicts", conflictsEncounteredBySingleTransactions);
             writeListToCSV(writer, "rollbacks", rollbacks);
             writeListToCSV(writer, "mean_Rollback", meanRollbackTimes);
+            writeListToCSV(writer, "victims_per_Rollback", victimsPerRollback);
             writeListToCSV(writer, "conflict_Rate", conflictRates);
+            writeListToCSV(writer, "commits_per_sec", commitsPerSecond);
+            writeListToCSV(writer, "attempts", attemptsWithRetries);
+            writeListToCSV(writer, "attempts_per_sec", attemptsPerSecond);
+            writeListToCSV(writer, "retries_per_commit", retriesPerCommit);
+            writeListToCSV(writer, "gave_up", gaveUp);
+            if (!commitGroupSizes.isEmpty()) {
+                writeListToCSV(writer, "commits_per_group", commitGroupSizes);
+            }
+            writeListToCSV(writer, "snapshots_per_TA", snapshotsPerTransaction);
+            writeListToCSV(writer, "early_aborts", earlyAbortColumn);
+            writeListToCSV(writer, "saved_write_s", savedWriteSeconds);
+            writeListToCSV(writer, "discarded_work_s", discardedWorkSeconds);
+            writeListToCSV(writer, "live_snapshots_peak", peakLiveSnapshots);
+            writeListToCSV(writer, "reaped_TA", reapedTransactions);
+            writeListToCSV(writer, "budget_waits", budgetWaits);
+            if (!exclusiveAdmissions.isEmpty()) {
+                writeListToCSV(writer, "exclusive_admissions", exclusiveAdmissions);
+                writeListToCSV(writer, "mode_switches", modeSwitches);
+            }
+            if (!snapshotCallsPerTransaction.isEmpty()) {
+                writeListToCSV(writer, "snapshot_calls_per_TA", snapshotCallsPerTransaction);
+            }
+            for (Map.Entry<String, List<Double>> row : phasePercentiles.entrySet()) {
+                writeListToCSV(writer, row.getKey(), row.getValue());
+            }
 
             writer.flush();
             System.out.println("CSV file created successfully: " + fileName);
@@ -224,6 +600,17 @@ public class Validator {
         }
     }
 
+    /**
+     * @return the parameters once for every rollback mode that was simulated
+     */
+    private static List<Integer> perRollbackMode(List<Integer> parameters) {
+        List<Integer> repeated = new LinkedList<>();
+        for (int i = 0; i < rollbackModeColumn.size() / parameters.size(); i++) {
+            repeated.addAll(parameters);
+        }
+        return repeated;
+    }
+
     private static <T> void writeListToCSV(FileWriter writer, String name, List<T> list) throws IOException {
         writer.append(name);
         for (T value : list) {
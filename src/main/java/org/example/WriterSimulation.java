@@ -0,0 +1,104 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * the writers of the Validator and of a Scenario. Every writer picks its files from the distribution and writes to each
+ * for a gaussian writing time before it commits, a conflicted transaction is started over as given by the RetryPolicy
+ * of the runner
+ */
+public class WriterSimulation {
+
+    private final TransactionRunner runner;
+    private final TransactionMetrics metrics;
+    private final KeyDistribution distribution;
+    private final double meanWritingTime;
+    private final double stVarWritingTime;
+    private final boolean earlyAbort;
+    private final int progressEvery;
+
+    /**
+     * @param runner runs and retries the transactions
+     * @param metrics counts the writing time saved by early aborts
+     * @param distribution picks the files
+     * @param meanWritingTime in milliseconds
+     * @param stVarWritingTime in milliseconds
+     * @param earlyAbort true if a writer stops writing once its transaction is cancelled, see CancellationToken
+     * @param progressEvery a writer prints a line every that many transactions, 0 = never
+     */
+    public WriterSimulation(TransactionRunner runner, TransactionMetrics metrics, KeyDistribution distribution,
+                            double meanWritingTime, double stVarWritingTime, boolean earlyAbort, int progressEvery) {
+        this.runner = runner;
+        this.metrics = metrics;
+        this.distribution = distribution;
+        this.meanWritingTime = meanWritingTime;
+        this.stVarWritingTime = stVarWritingTime;
+        this.earlyAbort = earlyAbort;
+        this.progressEvery = progressEvery;
+    }
+
+    /**
+     * executes the transactions of one writer one after another
+     * @param threadName the name of the writer
+     * @param iterations how many transactions the writer executes
+     */
+    public void runTransactions(String threadName, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            if (progressEvery > 0 && (i + 1) % progressEvery == 0) {
+                System.out.println("Iter " + i + " reached on " + Thread.currentThread().getName());
+            }
+            // Randomly select a file to write to
+            String fileName = "file" + distribution.next() + ".txt";
+            String content = threadName + " writes on iteration " + i;
+
+            // after a conflict the runner starts over
+            runner.run(threadName, fileName, (transactionInformation, attempt) -> {
+                write(transactionInformation);
+                return content;
+            });
+        }
+    }
+
+    /**
+     * simulates the writing time using a gaussian distribution, at least 100ms
+     */
+    private void write(TransactionInformation transactionInformation) {
+        long writingTime = (long) Math.max(100, ThreadLocalRandom.current().nextGaussian() * stVarWritingTime + meanWritingTime);
+        try {
+            if (earlyAbort) {
+                // stops writing as soon as the mapper knows the transaction is lost, the runner starts it again
+                long saved = transactionInformation.getCancellation().sleep(writingTime);
+                if (saved > 0) {
+                    metrics.recordEarlyAbort(saved);
+                }
+            } else {
+                Thread.sleep(writingTime);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * starts a thread per writer and waits until all of them are done
+     * @param writers thread name -> what the thread does
+     */
+    public static void runThreads(Map<String, Runnable> writers) {
+        List<Thread> threads = new ArrayList<>();
+        for (Map.Entry<String, Runnable> writer : writers.entrySet()) {
+            Thread thread = new Thread(writer.getValue(), writer.getKey());
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * the original backend, every operation is a sudo zfs call on the command line
+ */
+public class ZFSCommandBackend implements SnapshotBackend {
+
+    /**
+     * all files for this project to run should be inside the zpool and zfs shown here
+     */
+    private final String pathFileAccess;
+
+    /**
+     * zfs should be located here
+     */
+    private final String pathZFSCommands;
+
+    /**
+     * @param pathFileAccess the mountpoint of the zfs, f.e. /mypool/myfs/
+     * @param pathZFSCommands the name of the zfs, f.e. mypool/myfs
+     */
+    public ZFSCommandBackend(String pathFileAccess, String pathZFSCommands) {
+        this.pathFileAccess = pathFileAccess.endsWith("/") ? pathFileAccess : pathFileAccess + "/";
+        this.pathZFSCommands = pathZFSCommands;
+    }
+
+    @Override
+    public String getFileAccessPath() {
+        return pathFileAccess;
+    }
+
+    /**
+     * creates the zfs if it does not exist yet, f.e. the child datasets of the shards. The mountpoint is given to
+     * the current user so the files can be written without sudo, like it is expected for mypool/myfs
+     */
+    public void createDatasetIfMissing() {
+        if (ZFSMapper.runCommand("sudo zfs list " + pathZFSCommands).isSuccess()) {
+            return;
+        }
+        if (runAndReport("sudo zfs create -p " + pathZFSCommands)) {
+            ZFSMapper.doCommand("sudo chown $(id -u):$(id -g) " + pathFileAccess);
+        }
+    }
+
+    /**
+     * creates a zfs snapshot
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void createSnapshot(String nameOfSnapshot) {
+        String path = pathZFSCommands + "@" + nameOfSnapshot;
+        ZFSMapper.doCommand("sudo zfs snapshot " + path);
+    }
+
+    /**
+     * deletes a zfs snapshot according to the name, the path is constructed using the basePath
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void deleteSnapshot(String nameOfSnapshot) {
+        String path = pathZFSCommands + "@" + nameOfSnapshot;
+        ZFSMapper.doCommand("sudo zfs destroy " + path);
+    }
+
+    /**
+     * zfs snapshot takes several names and creates all snapshots atomically, if one fails none is created
+     * @param namesOfSnapshots the names of the snapshots
+     * @return true if zfs succeeded
+     */
+    @Override
+    public boolean createSnapshots(Collection<String> namesOfSnapshots) {
+        StringBuilder command = new StringBuilder("sudo zfs snapshot");
+        namesOfSnapshots.forEach(name -> command.append(' ').append(pathZFSCommands).append('@').append(name));
+        return runAndReport(command.toString());
+    }
+
+    /**
+     * zfs destroy takes a comma separated list of snapshots of the same zfs, mypool/myfs@a,b,c
+     * @param namesOfSnapshots the names of the snapshots
+     * @return true if zfs succeeded
+     */
+    @Override
+    public boolean deleteSnapshots(Collection<String> namesOfSnapshots) {
+        return runAndReport("sudo zfs destroy " + pathZFSCommands + "@" + String.join(",", namesOfSnapshots));
+    }
+
+    /**
+     * the flag -r ensures that the rollback to a certain snapshot is successfull even if newer snapshots are
+     * available, these are destroyed by zfs
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    @Override
+    public void rollbackToSnapshot(String nameOfSnapshot) {
+        String path = pathZFSCommands + "@" + nameOfSnapshot;
+        ZFSMapper.doCommand("sudo zfs rollback -r " + path);
+    }
+
+    /**
+     * zfs shows every snapshot read only in the hidden directory .zfs/snapshot of the mountpoint, no command needed
+     * @param nameOfSnapshot the name of the snapshot
+     * @param fileName well, the fileName
+     * @return mountpoint/.zfs/snapshot/nameOfSnapshot/fileName
+     */
+    @Override
+    public Path getSnapshotFilePath(String nameOfSnapshot, String fileName) {
+        return Path.of(pathFileAccess, ".zfs", "snapshot", nameOfSnapshot, fileName);
+    }
+
+    /**
+     * @return all names of the current ZFS snapshots
+     */
+    @Override
+    public Set<String> getAllSnapshots() {
+        // only the snapshots of this dataset, -H drops the header and -o name the other columns
+        CommandResult result = ZFSMapper.runCommand("sudo zfs list -H -o name -t snapshot -d 1 " + pathZFSCommands);
+        if (!result.isSuccess()) {
+            return new HashSet<>();
+        }
+        return parseSnapshotList(result.getOutput());
+    }
+
+    /**
+     * extracts the snapshot names out of the output of zfs list -H -o name -t snapshot, one dataset@snapshot per line
+     * @param lines the output lines, lines without @ are skipped
+     * @return the names of the snapshots without the name of the zfs
+     */
+    public static Set<String> parseSnapshotList(List<String> lines) {
+        Set<String> allSnapshot = new HashSet<>();
+        for (String line : lines) {
+            String fullName = line.trim();
+            int at = fullName.indexOf('@');
+            if (at < 0 || at == fullName.length() - 1) {
+                continue;
+            }
+            allSnapshot.add(fullName.substring(at + 1));
+        }
+        return allSnapshot;
+    }
+
+    /**
+     * deletes all snapshot of the zfs using the % range of zfs destroy
+     */
+    @Override
+    public void deleteAllSnapshots() {
+        ZFSMapper.doCommand("sudo zfs destroy " + pathZFSCommands + "@%");
+    }
+
+    private static boolean runAndReport(String command) {
+        CommandResult result = ZFSMapper.runCommand(command);
+        if (!result.isSuccess()) {
+            System.err.println("Failure on command: " + command);
+            result.getOutput().forEach(System.err::println);
+        }
+        return result.isSuccess();
+    }
+
+    /**
+     * DEBUG: showing all Snapshots
+     */
+    @Override
+    public void showSnapshots() {
+        ZFSMapper.doCommand("sudo zfs list -t snapshot -d 1 " + pathZFSCommands);
+    }
+}
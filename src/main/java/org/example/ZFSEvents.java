@@ -0,0 +1,117 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the ZFSMapper, so transactions, snapshots and rollbacks show up in JMC next to the
+ * lock waits and the process spawns. If no recording is running commit() does nothing, so the events cost close to nothing.
+ *
+ * every event has a duration (begin() to commit()), the thread is recorded by JFR itself, threadName is the name the
+ * caller gave to the mapper which is the one used in the snapshot names
+ */
+public final class ZFSEvents {
+
+    private static final String CATEGORY = "ZFSMapper";
+
+    private ZFSEvents() {
+    }
+
+    @Name("org.example.TransactionBegin")
+    @Label("Transaction Begin")
+    @Description("notifyWrite, takes the snapshot of a transaction")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class TransactionBegin extends Event {
+        @Label("Thread Name")
+        public String threadName;
+        @Label("File Name")
+        public String fileName;
+        @Label("Snapshot Name")
+        public String snapshotName;
+    }
+
+    @Name("org.example.TransactionCommit")
+    @Label("Transaction Commit")
+    @Description("appendToFile, including the rollback if a conflict was found")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class TransactionCommit extends Event {
+        @Label("Thread Name")
+        public String threadName;
+        @Label("File Name")
+        public String fileName;
+        @Label("Snapshot Name")
+        public String snapshotName;
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    @Name("org.example.ConflictDetected")
+    @Label("Conflict Detected")
+    @Description("the file of a transaction was changed since the transaction started")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class ConflictDetected extends Event {
+        @Label("Thread Name")
+        public String threadName;
+        @Label("File Name")
+        public String fileName;
+        @Label("Snapshot Name")
+        public String snapshotName;
+    }
+
+    @Name("org.example.Rollback")
+    @Label("Rollback")
+    @Description("rollback -r to the snapshot of a transaction or the restore of its file")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Rollback extends Event {
+        @Label("Mode")
+        @Description("DATASET or FILE, see RollbackMode")
+        public String mode;
+        @Label("Thread Name")
+        public String threadName;
+        @Label("File Name")
+        public String fileName;
+        @Label("Snapshot Name")
+        public String snapshotName;
+        @Label("Cascaded Victims")
+        @Description("transactions that lost their snapshot by this rollback")
+        public int cascadedVictims;
+    }
+
+    @Name("org.example.SnapshotCreate")
+    @Label("Snapshot Create")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class SnapshotCreate extends Event {
+        @Label("Snapshot Name")
+        public String snapshotName;
+    }
+
+    @Name("org.example.SnapshotDestroy")
+    @Label("Snapshot Destroy")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class SnapshotDestroy extends Event {
+        @Label("Snapshot Name")
+        public String snapshotName;
+    }
+
+    @Name("org.example.CommandExecution")
+    @Label("Command Execution")
+    @Description("an external command, f.e. sudo zfs snapshot")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class CommandExecution extends Event {
+        @Label("Command")
+        public String command;
+        @Label("Exit Code")
+        public int exitCode;
+    }
+}
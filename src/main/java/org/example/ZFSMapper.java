@@ -1,235 +1,1837 @@
 package org.example;
 
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 
 /**
  * this class implements basic ZFS commands as well as File Accesses
+ * the snapshots themselves are taken by a SnapshotBackend, by default the zfs cli
+ *
+ * one mapper is responsible for exactly one dataset, its rollback -r only affects the transactions of this dataset.
+ * To spread the files over several datasets use the ShardRouter, the commands are executed by one executor for all mappers
  */
 public class ZFSMapper {
 
     /**
-     * all files for this project to run should be inside the zpool and zfs shown here
+     * takes the snapshots, by default the zfs cli on mypool/myfs, all files for this project to run should be
+     * inside the directory given by backend.getFileAccessPath()
      */
-    private static String pathFileAccess = "/mypool/myfs/";
+    private final SnapshotBackend backend;
 
     /**
-     * zfs should be located here
+     * saves transaction informations, key = id of the transaction, transaction contains thread name, file name, file version
+     * and the name of its snapshot. A transaction that is missing here was ended by a rollback
      */
-    private static String pathZFSCommands = "mypool/myfs";
+    private final Map<Long,TransactionInformation> transactions = new ConcurrentHashMap<>();
 
     /**
-     * saves transaction informations, key = snapshotname, transaction contains thread name, file name, last modified
-     * effectively a mirror of the current zfs snapshots, as a snapshots corresponds to the time a thread started modifying a file
-     * this holds the same content as the zfs snapshots with timestamp, fileName and threadName
+     * the running transactions per file, to cancel them as soon as the file changes
      */
-    private static Map<String,TransactionInformation> transactions = new HashMap<>();
+    private final Map<String, Set<TransactionInformation>> openPerFile = new ConcurrentHashMap<>();
+
+    /**
+     * watches the directory of the files for changes of other programs, see startWatching
+     */
+    private WatchService watchService;
+
+    /**
+     * the transactions per snapshot, effectively a mirror of the current zfs snapshots, as a snapshot corresponds to the
+     * time threads started modifying files. Without snapshot sharing every snapshot has exactly one transaction,
+     * with sharing a snapshot is deleted when its last transaction is done (reference counting).
+     * Undo log transactions appear here as well under their own name, without a real snapshot
+     */
+    private final Map<String, Set<TransactionInformation>> snapshotHolders = new ConcurrentHashMap<>();
+
+    /**
+     * true if a new transaction reuses the last snapshot as long as no file changed since it was taken
+     */
+    private volatile boolean shareSnapshots = false;
+
+    /**
+     * increased by every change of a file through the mapper, a snapshot can be shared as long as this did not change
+     */
+    private final AtomicLong changeCounter = new AtomicLong();
+
+    /**
+     * the last snapshot taken and the changeCounter before it was taken, guarded by sharingLock
+     */
+    private String shareableSnapshot;
+    private long shareableChangeCount = -1;
+    private final Object sharingLock = new Object();
+
+    /**
+     * makes the names of the snapshots unique, a thread can start a new transaction on a file while others still hold
+     * its last snapshot or while the batched destroy of it is still queued
+     */
+    private final AtomicLong snapshotCounter = new AtomicLong();
+
+    /**
+     * the versions of the files, increased on every commit, used to detect conflicts
+     */
+    private final FileVersionRegistry versions = new FileVersionRegistry(false);
+
     /**
-     * collects the timings of Rollbacks in ms
+     * the creation order of the snapshots of the transactions, used to compute which transactions a rollback -r affects
      */
-    public static List<Long> timings= new LinkedList<>();
+    private final SnapshotIndex snapshotIndex = new SnapshotIndex();
+
+    /**
+     * compares the in memory state with the real snapshots from time to time, see startReconcile
+     */
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * ends the transactions whose lease expired, see startReaper
+     */
+    private ScheduledExecutorService reaper;
+    private volatile long leaseMillis;
+
+    /**
+     * one permit per snapshot a transaction may hold, null = no budget, see setSnapshotBudget
+     */
+    private volatile Semaphore snapshotBudget;
+
+    /**
+     * the snapshots taken for transactions that are not destroyed yet, each holds a permit of the snapshotBudget
+     */
+    private final Set<String> liveSnapshots = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the locks for single files, a transaction only waits for other transactions on a file hashed onto the same stripe
+     */
+    private final LockStripes fileLocks = new LockStripes(256);
+
+    /**
+     * guards the dataset as a whole. Everything that only touches one file (snapshot, append, destroy) takes the read lock
+     * and can run in parallel, only the rollback -r changes all files and snapshots at once and needs the write lock
+     */
+    private final ReentrantReadWriteLock datasetLock = new ReentrantReadWriteLock();
+    /**
+     * latency histograms of the phases of a transaction, replaces the old Timer and the list of rollback timings.
+     * The shards of a ShardRouter share one
+     */
+    private final TransactionMetrics metrics;
+
 
 
+    /**
+     * if true every write is followed by FileChannel.force, so a commit is on disk when appendToFile returns
+     */
+    private volatile boolean forceOnWrite = false;
+
+    /**
+     * what a conflict does, the whole dataset is rolled back by default
+     */
+    private volatile RollbackMode rollbackMode = RollbackMode.DATASET;
+
+    /**
+     * how new transactions are made undoable, a snapshot per transaction by default
+     */
+    private volatile TransactionMode transactionMode = TransactionMode.SNAPSHOT;
+
+    /**
+     * the journal of the appends of undo log transactions, null until setUndoJournal. Only written while no
+     * transactionJournal is set, that one records the same appends
+     */
+    private volatile UndoJournal undoJournal;
+
+    /**
+     * the journal of the transactions, lets the next start clean up after a crash, null = no journal
+     */
+    private volatile TransactionJournal transactionJournal;
+
+    /**
+     * how long the first append to a file waits for more appends to commit them together, 0 = no group commit
+     */
+    private volatile long groupCommitWindowNanos = 0;
+
+    /**
+     * the groups that can still be joined, one per file at most
+     */
+    private final Map<String, CommitGroup> openGroups = new ConcurrentHashMap<>();
+
+    /**
+     * the original setup, the zfs cli on mypool/myfs
+     */
+    public ZFSMapper() {
+        this(new ZFSCommandBackend("/mypool/myfs/", "mypool/myfs"));
+    }
+
+    /**
+     * @param backend takes the snapshots of the dataset of this mapper
+     */
+    public ZFSMapper(SnapshotBackend backend) {
+        this(backend, new TransactionMetrics());
+    }
+
+    /**
+     * @param backend takes the snapshots of the dataset of this mapper
+     * @param metrics where the latencies are recorded, can be shared by several mappers
+     */
+    public ZFSMapper(SnapshotBackend backend, TransactionMetrics metrics) {
+        this.backend = backend;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param detect true if writes of other programs should be detected as conflicts as well, costs a stat per check
+     */
+    public void setDetectExternalChanges(boolean detect) {
+        versions.setDetectExternalChanges(detect);
+    }
+
+    public SnapshotBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @param force true if writes should be forced to disk before a commit returns, default false
+     */
+    public void setForceOnWrite(boolean force) {
+        forceOnWrite = force;
+        if (undoJournal != null) {
+            undoJournal.setForce(force);
+        }
+        if (transactionJournal != null) {
+            transactionJournal.setForce(force);
+        }
+    }
+
+    /**
+     * @param mode DATASET rolls back everything like before, FILE only restores the file of the conflicting transaction
+     */
+    public void setRollbackMode(RollbackMode mode) {
+        rollbackMode = mode;
+    }
+
+    public RollbackMode getRollbackMode() {
+        return rollbackMode;
+    }
+
+    /**
+     * @param mode SNAPSHOT takes a snapshot per transaction, UNDO_LOG only remembers the length of the file,
+     *             needs an UndoJournal or a TransactionJournal. Applies to the transactions started from now on
+     */
+    public void setTransactionMode(TransactionMode mode) {
+        if (mode == TransactionMode.UNDO_LOG && undoJournal == null && transactionJournal == null) {
+            throw new IllegalStateException("undo log transactions need a journal, see setUndoJournal and setTransactionJournal");
+        }
+        transactionMode = mode;
+    }
+
+    public TransactionMode getTransactionMode() {
+        return transactionMode;
+    }
+
+    /**
+     * who loses a conflict, see ConflictPolicy
+     */
+    private volatile ConflictPolicy conflictPolicy = ConflictPolicy.ROLLBACK;
+
+    /**
+     * a commit to a file
+     * @param priority the age of the committing transaction, the oldest one of a commit group
+     * @param workNanos the time the transaction(s) worked for it, lost if the commit is rolled back
+     * @param previousVersion the version of the file before the commit, it is the current one again if it is rolled back
+     */
+    private record Change(long priority, long workNanos, long previousVersion) {
+    }
+
+    /**
+     * the commits per file since the oldest snapshot known, key = tick of the snapshotIndex taken right before the
+     * write. Tells who changed the file of a conflicting transaction and which snapshots still have the file unchanged
+     */
+    private final Map<String, ConcurrentSkipListMap<Long, Change>> changes = new ConcurrentHashMap<>();
+
+    /**
+     * switches hot files to exclusive admission, null = every transaction is optimistic
+     */
+    private volatile AdaptiveScheduler scheduler;
+
+    /**
+     * transactions that start while no file was changed since the last snapshot reuse it instead of taking their own,
+     * this saves snapshot and destroy calls and leaves less snapshots for a rollback -r. Not used if external changes
+     * are detected, the mapper does not know when other programs change files
+     * @param share true to share snapshots
+     */
+    public void setShareSnapshots(boolean share) {
+        shareSnapshots = share;
+    }
+
+    /**
+     * @param policy who loses a conflict, ROLLBACK by default
+     */
+    public void setConflictPolicy(ConflictPolicy policy) {
+        conflictPolicy = policy;
+    }
+
+    public ConflictPolicy getConflictPolicy() {
+        return conflictPolicy;
+    }
+
+    /**
+     * lets the scheduler decide per file whether transactions run optimistically with a snapshot or one after another
+     * without one, see AdaptiveScheduler
+     * @param scheduler the scheduler, null to turn it off
+     */
+    public void setScheduler(AdaptiveScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public AdaptiveScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * with group commit the appends to the same file arriving within the window are validated against the same version,
+     * written with one gathering write and increase the version only once. So they do not conflict with each other,
+     * which is fine as appends do not overwrite each other
+     * @param windowMicros how long the first append waits for others, 0 turns group commit off
+     */
+    public void setGroupCommitWindow(long windowMicros) {
+        groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * sets the journal of the undo log transactions. The appends the last run did not finish are undone first,
+     * so this is called before the first transaction.
+     * With a TransactionJournal the undo log transactions are recorded by that one, its append records hold the same
+     * length of the file, and the UndoJournal is only written without it. So after a crash at most one of the two has
+     * unfinished appends and the order of setUndoJournal and setTransactionJournal does not matter. Records of both
+     * for the same append, left by an older version, hold the same length, the second truncation finds nothing to cut
+     * @param journal the journal of this dataset, outside of the dataset
+     */
+    public void setUndoJournal(UndoJournal journal) {
+        try {
+            Map<String, Long> unfinished = journal.readUnfinished();
+            for (Map.Entry<String, Long> append : unfinished.entrySet()) {
+                if (Files.exists(pathOf(append.getKey())) && Files.size(pathOf(append.getKey())) > append.getValue()) {
+                    truncateFile(append.getKey(), append.getValue());
+                    System.err.println("undo journal: truncated unfinished append of " + append.getKey());
+                }
+            }
+            journal.clear();
+        } catch (IOException e) {
+            System.err.println("Failure on recovering the undo journal " + journal.getPath());
+            e.printStackTrace();
+        }
+        journal.setForce(forceOnWrite);
+        undoJournal = journal;
+    }
+
+    /**
+     * sets the journal of the transactions. What the last run left open is cleaned up first: files that were being
+     * restored are copied back from their snapshot again, unfinished appends are cut off and the snapshots the last run
+     * did not destroy are destroyed. Other snapshots of the dataset are not touched. Called before the first transaction.
+     * If a file can not be restored or truncated the start fails, the snapshots stay and the journal is not cleared
+     * @param journal the journal of this dataset, outside of the dataset
+     * @throws UncheckedIOException if the recovery failed
+     */
+    public void setTransactionJournal(TransactionJournal journal) {
+        long start = System.nanoTime();
+        TransactionJournal.Recovery recovery = journal.getRecovery();
+        IOException failure = null;
+        for (Map.Entry<String, String> restore : recovery.unfinishedRestores().entrySet()) {
+            try {
+                copyFromSnapshot(restore.getValue(), restore.getKey());
+                System.err.println("transaction journal: restored " + restore.getKey() + " from " + restore.getValue() + " again");
+            } catch (IOException e) {
+                System.err.println("Failure on restoring " + restore.getKey() + " from " + restore.getValue() + " during recovery");
+                failure = e;
+            }
+        }
+        for (Map.Entry<String, Long> append : recovery.unfinishedAppends().entrySet()) {
+            try {
+                if (sizeOf(pathOf(append.getKey())) > append.getValue()) {
+                    truncateFile(append.getKey(), append.getValue());
+                    System.err.println("transaction journal: truncated unfinished append of " + append.getKey());
+                }
+            } catch (IOException e) {
+                System.err.println("Failure on truncating " + append.getKey() + " during recovery");
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            // the snapshots and the records are what the next try needs, nothing is destroyed or cleared
+            throw new UncheckedIOException("recovery of " + journal.getPath() + " failed, the snapshots and the journal are kept", failure);
+        }
+        deleteSnapshots(new ArrayList<>(recovery.orphanedSnapshots()));
+        journal.clear();
+        journal.setForce(forceOnWrite);
+        transactionJournal = journal;
+        if (!recovery.isEmpty()) {
+            System.out.println("transaction journal " + journal.getPath() + ": " + recovery.transactions().size()
+                    + " transactions were running, destroyed " + recovery.orphanedSnapshots().size() + " orphaned snapshots, replayed "
+                    + recovery.records() + " records in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * @return the directory the files are located in, ends with "/"
+     */
+    public String getFileAccessPath() {
+        return backend.getFileAccessPath();
+    }
+
+    /**
+     * executes the commands, by default a few persistent shells, created on first use. Shared by all mappers
+     */
+    private static CommandExecutor commandExecutor;
+
+    /**
+     * selects how commands are executed, the previous executor is closed
+     * @param executor the executor to use from now on
+     */
+    public static synchronized void setCommandExecutor(CommandExecutor executor) {
+        if (commandExecutor != null && commandExecutor != executor) {
+            commandExecutor.close();
+        }
+        commandExecutor = executor;
+    }
+
+    private static synchronized CommandExecutor getCommandExecutor() {
+        if (commandExecutor == null) {
+            commandExecutor = new PersistentShellExecutor(4);
+        }
+        return commandExecutor;
+    }
+
+    /**
+     * executes a command and returns its output and exit status
+     * @param command the bash command
+     * @return the result of the command
+     */
+    public static CommandResult runCommand(String command) {
+        ZFSEvents.CommandExecution event = new ZFSEvents.CommandExecution();
+        event.begin();
+        CommandResult result = getCommandExecutor().execute(command);
+        event.command = command;
+        event.exitCode = result.getExitCode();
+        event.commit();
+        return result;
+    }
+
+    /**
+     * basic command method used to execute basic commands where output is not needed, the output is printed
+     * @param command
+     */
+    public static void doCommand(String command) {
+        CommandResult result = runCommand(command);
+        result.getOutput().forEach(System.out::println);
+        if (!result.isSuccess()) {
+            System.err.println("Failure on command: " + command + " exit code " + result.getExitCode());
+        }
+    }
+
+    /**
+     * rollback logic to a certain snapshot. When this is called, a conflict was recognized.
+     * As the transactions map represents
+     *  1. the modified timestamps when a thread started its modification
+     *  2. and a missing transaction e.g. snapshots indicates that a rollback has occured that effected newer snapshots
+     *  the transactions map is updated with the remaining snapshots after calling zfs rollback -r
+     *  the rollback command along with the flag -r ensures that the rollback to a certain snapshot is successfull even if newer snapshots are
+     *  available. ZFS default prohibits rolling back to older snapshots when newer snapshots exist. However when it is desired
+     *  anyway then the flag -r  ensures that the newer snapshots that are affected by the rollback are deleted as well.
+     *  Which snapshots are newer is known from the snapshotIndex, so the transactions map is updated in memory instead of
+     *  asking zfs via zfs list which snapshots remain. Snapshots created at the same time as the one rolled back to
+     *  might be older for zfs and survive the rollback -r. Their transactions are treated as affected anyway, so only
+     *  if there are such snapshots zfs is asked which of them survived, these are deleted here
+     *
+     *  this is the only operation that needs the whole dataset, therefore it holds the write lock of the datasetLock
+     *
+     * @param transactionInformation holds the information from the transaction that encountered a modified timestamp and therefore a conflict
+     *                               this holds the snapshot name to which the rollback should be executed
+     */
+    public void rollbackToSnapshot(TransactionInformation transactionInformation) {
+        rollbackToSnapshot(transactionInformation, transactionInformation.getSnapshotName());
+    }
+
+    /**
+     * the same with another snapshot than the one of the transaction, see ConflictPolicy.MINIMAL_CASCADE.
+     * The snapshot of the transaction is deleted afterwards if no one else holds it
+     * @param transactionInformation the transaction that found the conflict
+     * @param snapshotName the snapshot to roll back to, not older than the one of the transaction
+     */
+    private void rollbackToSnapshot(TransactionInformation transactionInformation, String snapshotName) {
+        datasetLock.writeLock().lock();
+        long start = System.nanoTime();
+        ZFSEvents.Rollback event = new ZFSEvents.Rollback();
+        event.begin();
+        try {
+            //System.out.println("Attempting rollback on "+ transactionInformation.getSnapshotName());
+            SnapshotIndex.Entry target = snapshotIndex.get(snapshotName);
+            List<SnapshotIndex.Entry> affected = snapshotIndex.newerThan(snapshotName);
+            backend.rollbackToSnapshot(snapshotName);
+            List<String> survivors = survivorsOfRollback(target, affected);
+            // rollback -r destroyed the others
+            affected.stream().map(SnapshotIndex.Entry::getNameOfSnapshot).filter(name -> !survivors.contains(name))
+                    .forEach(this::snapshotGone);
+            changeCounter.incrementAndGet();
+            // the version every changed file had at the target, it has this content again
+            Map<String, Long> restoredVersions = new HashMap<>();
+            if (target != null) {
+                changes.forEach((fileName, fileChanges) -> {
+                    Map.Entry<Long, Change> firstUndone = fileChanges.higherEntry(target.getEndTick());
+                    if (firstUndone != null) {
+                        restoredVersions.put(fileName, firstUndone.getValue().previousVersion());
+                    }
+                    discardChanges(fileChanges, target.getEndTick());
+                });
+            }
+            int victims = 0;
+            for (SnapshotIndex.Entry entry : affected) {
+                Set<TransactionInformation> holders = snapshotHolders.remove(entry.getNameOfSnapshot());
+                snapshotIndex.remove(entry.getNameOfSnapshot());
+                if (holders != null) {
+                    for (TransactionInformation victim : holders) {
+                        abort(victim, "snapshot destroyed by the rollback of " + transactionInformation.getThreadName());
+                        victims++;
+                    }
+                }
+            }
+            deleteSnapshots(survivors);
+            restampSurvivors(restoredVersions);
+            // the transactions sharing my snapshot go on, the files are in the state they started with
+            String unused = release(transactionInformation);
+            if (unused != null) {
+                deleteSnapshot(unused);
+            }
+            //System.out.println("showing remaining snapshots");
+            //showSnapshots();
+            //System.out.println("showing remaining transactions saved");
+            //transactions.keySet().forEach(System.out::println);
+            //System.out.println("end showing");
+            metrics.recordSince(TransactionPhase.ROLLBACK, start);
+            metrics.recordRollbackVictims(victims);
+            event.threadName = transactionInformation.getThreadName();
+            event.fileName = transactionInformation.getFileName();
+            event.snapshotName = snapshotName;
+            event.cascadedVictims = victims;
+            event.mode = RollbackMode.DATASET.name();
+            event.commit();
+        } finally {
+            datasetLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * the snapshots that were created at the same time as the target might have been created before it, then the
+     * rollback -r did not destroy them. Only in that case the backend is asked, a strictly newer one is surely gone
+     * @param target the snapshot rolled back to, null if unknown
+     * @param affected the snapshots newerThan the target
+     * @return the affected snapshots that still exist
+     */
+    private List<String> survivorsOfRollback(SnapshotIndex.Entry target, List<SnapshotIndex.Entry> affected) {
+        if (target == null || affected.stream().noneMatch(entry -> entry.overlaps(target))) {
+            return List.of();
+        }
+        Set<String> existing = getAllSnapshots();
+        return affected.stream().filter(entry -> entry.overlaps(target)).map(SnapshotIndex.Entry::getNameOfSnapshot)
+                .filter(existing::contains).toList();
+    }
+
+    /**
+     * a dataset rollback changes the files back, so their version is increased. The transactions that survived it and
+     * started with the version the file has again get the new one, otherwise they would conflict with commits that no
+     * longer exist. The caller holds the dataset exclusively
+     * @param restoredVersions the version each rolled back file had at the snapshot
+     */
+    private void restampSurvivors(Map<String, Long> restoredVersions) {
+        Map<String, Long> newVersions = new HashMap<>();
+        restoredVersions.keySet().forEach(fileName -> newVersions.put(fileName, versions.bump(fileName)));
+        for (TransactionInformation survivor : transactions.values()) {
+            String fileName = survivor.getFileName();
+            Long restored = restoredVersions.get(fileName);
+            if (restored != null && restored == survivor.getFileVersion()) {
+                survivor.restamp(newVersions.get(fileName), versions.readStamp(fileName, pathOf(fileName)));
+            }
+        }
+    }
+
+    /**
+     * the conflict handling of RollbackMode.FILE and of undo log transactions. Instead of rolling back the dataset only
+     * the file of the transaction is copied back from its snapshot or, without snapshot, truncated to the length it had
+     * when the transaction started. The other files and the snapshots of their transactions are not touched.
+     * Transactions on the same file that started after this one are aborted, like a rollback -r would do, the older ones
+     * find the conflict themselves as the version of the file is increased.
+     *
+     * only the file changes, so the file lock is enough and transactions on other files go on meanwhile
+     * @param transactionInformation the transaction that found the conflict
+     * @param woundContent appended right after the restore if not null, see ConflictPolicy.WOUND_WAIT
+     * @return ROLLED_BACK (COMMITTED with woundContent), ABORTED if the snapshot is gone already, null if the file
+     * could not be restored
+     */
+    private Outcome restoreFile(TransactionInformation transactionInformation, String woundContent) {
+        String fileName = transactionInformation.getFileName();
+        String snapshotName = transactionInformation.getSnapshotName();
+        ReentrantLock fileLock = fileLocks.lockFor(fileName);
+        datasetLock.readLock().lock();
+        fileLock.lock();
+        long start = System.nanoTime();
+        ZFSEvents.Rollback event = new ZFSEvents.Rollback();
+        event.begin();
+        try {
+            if (!isAlive(transactionInformation)) {
+                return Outcome.ABORTED;
+            }
+            // the transactions of the same file hold the same file lock, so nobody can start or commit on the file meanwhile
+            List<TransactionInformation> affected = new ArrayList<>();
+            for (SnapshotIndex.Entry entry : snapshotIndex.newerThan(snapshotName)) {
+                Set<TransactionInformation> holders = snapshotHolders.get(entry.getNameOfSnapshot());
+                if (holders != null) {
+                    holders.stream().filter(other -> other.getFileName().equals(fileName)).forEach(affected::add);
+                }
+            }
+            try {
+                if (transactionInformation.isUndoLog()) {
+                    truncateFile(fileName, transactionInformation.getFileOffset());
+                } else {
+                    if (transactionJournal != null) {
+                        transactionJournal.logRestore(transactionInformation);
+                    }
+                    copyFromSnapshot(snapshotName, fileName);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (transactionInformation.isUndoLog()) {
+                    // nothing else to roll back to, the file keeps the content
+                    System.err.println("Failure on truncating " + fileName + ", transaction " + snapshotName + " is aborted");
+                    release(transactionInformation);
+                    return Outcome.ABORTED;
+                }
+                System.err.println("Failure on restoring " + fileName + " from " + snapshotName + ", rolling back the dataset instead");
+                return null;
+            }
+            versions.bump(fileName);
+            changeCounter.incrementAndGet();
+            SnapshotIndex.Entry own = snapshotIndex.get(snapshotName);
+            ConcurrentSkipListMap<Long, Change> fileChanges = changes.get(fileName);
+            if (own != null && fileChanges != null) {
+                discardChanges(fileChanges, own.getEndTick());
+            }
+            List<String> unused = new ArrayList<>();
+            for (TransactionInformation victim : affected) {
+                String name = release(victim);
+                if (name != null) {
+                    unused.add(name);
+                }
+                victim.getCancellation().cancel(fileName + " restored by " + transactionInformation.getThreadName());
+            }
+            String name = release(transactionInformation);
+            if (name != null) {
+                unused.add(name);
+            }
+            invalidate(fileName, fileName + " restored by " + transactionInformation.getThreadName());
+            deleteSnapshots(unused);
+            metrics.recordSince(TransactionPhase.ROLLBACK, start);
+            metrics.recordRollbackVictims(affected.size());
+            event.threadName = transactionInformation.getThreadName();
+            event.fileName = fileName;
+            event.snapshotName = snapshotName;
+            event.cascadedVictims = affected.size();
+            event.mode = transactionInformation.isUndoLog() ? TransactionMode.UNDO_LOG.name() : RollbackMode.FILE.name();
+            event.commit();
+            if (woundContent != null && append(transactionInformation, woundContent)) {
+                invalidate(fileName, "commit of " + transactionInformation.getThreadName());
+                return Outcome.COMMITTED;
+            }
+            return Outcome.ROLLED_BACK;
+        } finally {
+            fileLock.unlock();
+            datasetLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * replaces the content of the file by the one in the snapshot with FileChannel.transferTo, on linux the kernel
+     * copies the data itself (copy_file_range), nothing goes through the java heap.
+     * A file that did not exist when the snapshot was taken is deleted
+     * @param nameOfSnapshot the name of the snapshot
+     * @param fileName well, the fileName
+     */
+    private void copyFromSnapshot(String nameOfSnapshot, String fileName) throws IOException {
+        Path source = backend.getSnapshotFilePath(nameOfSnapshot, fileName);
+        backend.beginWrite(fileName);
+        try {
+            if (!Files.exists(source)) {
+                Files.deleteIfExists(pathOf(fileName));
+                return;
+            }
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(pathOf(fileName),
+                         StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                if (forceOnWrite) {
+                    out.force(false);
+                }
+            }
+        } finally {
+            backend.endWrite(fileName);
+        }
+    }
+
+    /**
+     * undoes appends by cutting the file back to its old length
+     * @param fileName well, the fileName
+     * @param length the length the file had before the appends
+     */
+    private void truncateFile(String fileName, long length) throws IOException {
+        backend.beginWrite(fileName);
+        try (FileChannel channel = FileChannel.open(pathOf(fileName), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+            if (forceOnWrite) {
+                channel.force(false);
+            }
+        } finally {
+            backend.endWrite(fileName);
+        }
+    }
+
+    /**
+     * @return the length of the file, 0 if it does not exist
+     */
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+
+
+
+    /**
+     * starts a background thread comparing the in memory state with the real snapshots every periodSeconds.
+     * Transactions whose snapshot is gone are removed, snapshots unknown to the mapper are only reported as they could
+     * belong to someone else
+     * @param periodSeconds the time between two comparisons
+     */
+    public synchronized void startReconcile(long periodSeconds) {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * stops the comparison started by startReconcile, if any
+     */
+    public synchronized void stopReconcile() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * starts a background thread that ends the transactions running longer than the lease every periodMillis. Their
+     * snapshots are destroyed with one call of the backend, so a thread that died between notifyWrite and appendToFile
+     * does not leak its snapshot. If the thread is still alive its appendToFile returns ABORTED
+     * @param leaseMillis how long a transaction may hold its snapshot
+     * @param periodMillis the time between two rounds
+     */
+    public synchronized void startReaper(long leaseMillis, long periodMillis) {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        this.leaseMillis = leaseMillis;
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::reap, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stops the thread started by startReaper, if any
+     */
+    public synchronized void stopReaper() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
+    }
+
+    /**
+     * one round of the reaper, the expired transactions are ended like aborted ones
+     * @return the number of transactions ended
+     */
+    public int reap() {
+        long start = System.nanoTime();
+        long lease = leaseMillis;
+        List<TransactionInformation> expired = transactions.values().stream()
+                .filter(transactionInformation -> start - transactionInformation.getStartNanos() > TimeUnit.MILLISECONDS.toNanos(lease))
+                .toList();
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        List<String> unused = new ArrayList<>();
+        int reaped = 0;
+        datasetLock.readLock().lock();
+        try {
+            for (TransactionInformation transactionInformation : expired) {
+                ReentrantLock fileLock = fileLocks.lockFor(transactionInformation.getFileName());
+                fileLock.lock();
+                try {
+                    if (!isAlive(transactionInformation)) {
+                        continue;
+                    }
+                    String name = release(transactionInformation);
+                    if (name != null) {
+                        unused.add(name);
+                    }
+                    transactionInformation.getCancellation().cancel("lease of " + lease + "ms expired");
+                    reaped++;
+                } finally {
+                    fileLock.unlock();
+                }
+                // its thread might never come back to hand the file to the next one
+                finishScheduling(transactionInformation, Outcome.ABORTED);
+            }
+            deleteSnapshots(unused);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+        metrics.recordSince(TransactionPhase.REAP, start);
+        metrics.recordReap(reaped, unused.size());
+        return reaped;
+    }
+
+    /**
+     * at most max snapshots of transactions exist at once, notifyWrite waits for a destroy if there are as many
+     * already. Fewer snapshots keep zfs list and rollback -r fast. Transactions without snapshot (undo log, exclusive)
+     * do not wait. Set before the first transaction
+     * @param max the budget, 0 = no limit
+     */
+    public void setSnapshotBudget(int max) {
+        snapshotBudget = max > 0 ? new Semaphore(Math.max(0, max - liveSnapshots.size()), true) : null;
+    }
+
+    /**
+     * @return the snapshots of the transactions of this mapper that exist right now
+     */
+    public int getLiveSnapshots() {
+        return liveSnapshots.size();
+    }
+
+    /**
+     * the snapshot does not exist anymore, its permit is given back
+     * @param nameOfSnapshot the name of the snapshot
+     */
+    private void snapshotGone(String nameOfSnapshot) {
+        if (liveSnapshots.remove(nameOfSnapshot)) {
+            metrics.recordLiveSnapshots(-1);
+            Semaphore budget = snapshotBudget;
+            if (budget != null) {
+                budget.release();
+            }
+        }
+        if (transactionJournal != null) {
+            transactionJournal.logDestroy(nameOfSnapshot);
+        }
+    }
+
+    /**
+     * starts a background thread watching the directory of the files (WatchService, inotify on linux). When a file
+     * is changed the running transactions on it are checked, the ones that can no longer commit are cancelled right
+     * away, f.e. when the file is saved in gedit. Only changes of other programs are found this way, and only
+     * with setDetectExternalChanges(true), the changes of the mapper itself cancel the transactions directly
+     */
+    public synchronized void startWatching() {
+        if (watchService != null) {
+            return;
+        }
+        Path directory = Path.of(getFileAccessPath());
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            register(directory);
+        } catch (IOException e) {
+            System.err.println("could not watch " + directory + ", transactions learn about external changes on commit");
+            e.printStackTrace();
+            watchService = null;
+            return;
+        }
+        WatchService service = watchService;
+        Thread watcher = new Thread(() -> watch(service, directory), "file-watcher-" + directory);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * stops the thread started by startWatching, if any
+     */
+    public synchronized void stopWatching() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            watchService = null;
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void watch(WatchService service, Path directory) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> watchEvent : key.pollEvents()) {
+                    if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, every running transaction is checked
+                        openPerFile.keySet().forEach(this::checkOpenTransactions);
+                    } else if (watchEvent.context() instanceof Path changed) {
+                        checkOpenTransactions(changed.toString());
+                    }
+                }
+                if (!key.reset()) {
+                    // the directory is gone for a moment, f.e. remounted by a rollback
+                    Thread.sleep(100);
+                    synchronized (this) {
+                        if (watchService != service) {
+                            return;
+                        }
+                        register(directory);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // stopWatching
+        } catch (IOException e) {
+            System.err.println("stopped watching " + directory);
+            e.printStackTrace();
+        }
+    }
+
+    private void checkOpenTransactions(String fileName) {
+        Set<TransactionInformation> open = openPerFile.get(fileName);
+        if (open == null) {
+            return;
+        }
+        for (TransactionInformation transactionInformation : open) {
+            if (!transactionInformation.getCancellation().isCancelled() && !matchesFile(transactionInformation)) {
+                transactionInformation.getCancellation().cancel(fileName + " was changed outside of the mapper");
+            }
+        }
+    }
 
     /**
-     * basic command method used to execute basic commands where output is not needed
-     * @param command
+     * one comparison of the in memory state with the snapshots of the backend, holds the dataset exclusively
+     * so no snapshot is created or rolled back in between
      */
-    public synchronized static void doCommand(String command) {
+    public void reconcile() {
+        datasetLock.writeLock().lock();
         try {
-            // Create process and execute command
-            ProcessBuilder processBuilder = new ProcessBuilder("bash", "-c", command);
-            processBuilder.redirectErrorStream(true);  // Merge stdout and stderr
-            Process process = processBuilder.start();
-
-            // Read the output and error streams
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
+            Set<String> existing = getAllSnapshots();
+            int lost = 0;
+            for (String snapshotName : snapshotIndex.names()) {
+                Set<TransactionInformation> holders = snapshotHolders.getOrDefault(snapshotName, Set.of());
+                if (holders.stream().anyMatch(TransactionInformation::isUndoLog)) {
+                    // has no snapshot
+                    continue;
+                }
+                if (!existing.contains(snapshotName)) {
+                    snapshotHolders.remove(snapshotName);
+                    snapshotIndex.remove(snapshotName);
+                    snapshotGone(snapshotName);
+                    for (TransactionInformation transactionInformation : holders) {
+                        abort(transactionInformation, "snapshot " + snapshotName + " is gone");
+                        lost++;
+                    }
+                }
             }
-
-        } catch (IOException e) {
-            System.err.println("Failure on command: " + command);
+            long unknown = existing.stream().filter(name -> !snapshotIndex.contains(name)).count();
+            if (lost > 0 || unknown > 0) {
+                System.err.println("reconcile: " + lost + " transactions lost their snapshot, " + unknown + " snapshots are unknown");
+            }
+        } catch (RuntimeException e) {
             e.printStackTrace();
+        } finally {
+            datasetLock.writeLock().unlock();
         }
     }
 
-
-
+    /**
+     * @param fileName well, the fileName
+     * @return the file on disk
+     */
+    private Path pathOf(String fileName) {
+        return Path.of(getFileAccessPath() + fileName);
+    }
 
     /**
-     * rollback logic to a certain snapshot. When this is called, a conflict was recognized.
-     * As the transactions map represents
-     *  1. the modified timestamps when a thread started its modification
-     *  2. and a missing transaction e.g. snapshots indicates that a rollback has occured that effected newer snapshots
-     *  the transactions map is updated with the remaining snapshots after calling zfs rollback -r
-     *  the rollback command along with the flag -r ensures that the rollback to a certain snapshot is successfull even if newer snapshots are
-     *  available. ZFS default prohibits rolling back to older snapshots when newer snapshots exist. However when it is desired
-     *  anyway then the flag -r  ensures that the newer snapshots that are affected by the rollback are deleted as well.
-     *  As this implements a tree like inheritance logic i did not try to model the behaviour in code for my transactions map but instead just copy
-     *  the snapshots that remain afterwards because these are snapshots of transactions that are not affected by the rollback and which can still
-     *  finish their work
-     *
-     * @param transactionInformation holds the information from the transaction that encountered a modified timestamp and therefore a conflict
-     *                               this holds the snapshot name to which the rollback should be executed
+     * @return true if the transaction was not ended by a rollback
      */
-    public static void rollbackToSnapshot(TransactionInformation transactionInformation) {
-        //System.out.println("Attempting rollback on "+ transactionInformation.getSnapshotName());
-        String path = pathZFSCommands + "@" + transactionInformation.getSnapshotName();
-        //System.out.println("rolling back on path: "+ path);
-        doCommand("sudo zfs rollback -r " + path);
-        deleteSnapshot(transactionInformation.getSnapshotName());
-        Set<String> remainingSnapshot= getAllSnapshots();
-        Set<String> toDelete = transactions.keySet().stream().filter(key -> !remainingSnapshot.contains(key)).collect(Collectors.toSet());
-        toDelete.forEach(key -> transactions.remove(key));
-        //System.out.println("showing remaining snapshots");
-        //showSnapshots();
-        //System.out.println("showing remaining transactions saved");
-        //transactions.keySet().forEach(System.out::println);
-        //System.out.println("end showing");
-        Timer.stop();
-        //System.out.println("TIMER Appending "+Timer.getElapsedTimeMillis());
-        timings.add(Timer.getElapsedTimeMillis());
+    private boolean isAlive(TransactionInformation transactionInformation) {
+        return transactions.containsKey(transactionInformation.getId());
     }
 
+    /**
+     * @param transactionInformation a new transaction with a snapshot of its own
+     */
+    private void addHolder(TransactionInformation transactionInformation) {
+        Set<TransactionInformation> holders = ConcurrentHashMap.newKeySet();
+        holders.add(transactionInformation);
+        snapshotHolders.put(transactionInformation.getSnapshotName(), holders);
+    }
 
+    /**
+     * a new transaction on the last snapshot, if no file changed since it was taken and it still exists
+     * @return the transaction or null if a new snapshot is needed
+     */
+    private TransactionInformation joinSharedSnapshot(String threadName, String fileName, long fileVersion,
+                                                      FileVersionRegistry.FileStamp fileStamp) {
+        String candidate;
+        synchronized (sharingLock) {
+            candidate = shareableChangeCount == changeCounter.get() ? shareableSnapshot : null;
+        }
+        if (candidate == null) {
+            return null;
+        }
+        TransactionInformation transactionInformation = new TransactionInformation(threadName, fileName, candidate, fileVersion, fileStamp);
+        boolean joined = snapshotHolders.computeIfPresent(candidate, (name, holders) -> {
+            holders.add(transactionInformation);
+            return holders;
+        }) != null;
+        if (!joined) {
+            return null;
+        }
+        metrics.recordSharedSnapshot();
+        return transactionInformation;
+    }
 
+    /**
+     * ends a transaction whose snapshot is gone, its snapshot is deleted by the caller
+     * @param reason given to the CancellationToken of the transaction
+     */
+    private void abort(TransactionInformation transactionInformation, String reason) {
+        transactions.remove(transactionInformation.getId());
+        forget(transactionInformation);
+        TransactionJournal journal = transactionJournal;
+        if (journal != null) {
+            journal.logAbort(transactionInformation.getId());
+        }
+        transactionInformation.getCancellation().cancel(reason);
+    }
 
+    private void forget(TransactionInformation transactionInformation) {
+        openPerFile.computeIfPresent(transactionInformation.getFileName(), (fileName, open) -> {
+            open.remove(transactionInformation);
+            return open.isEmpty() ? null : open;
+        });
+    }
 
     /**
-     * the last modified timestamp
+     * cancels the running transactions of the file after it was changed, they can no longer commit
      * @param fileName well, the fileName
-     * @return the last modified timestamp of the file
+     * @param reason given to their CancellationToken
      */
-    private static long getLastModified(String fileName) {
-        String path = pathFileAccess + fileName;
-        File file = new File(path);
-
-        // Get the last modified time in milliseconds
-        long lastModified = file.lastModified();
-
-        if (lastModified == 0) {
-            System.err.println("Error: The file does not exist or cannot retrieve the last modified time.");
-            return -1; // Return -1 in case of error (file not found)
+    private void invalidate(String fileName, String reason) {
+        Set<TransactionInformation> open = openPerFile.get(fileName);
+        if (open != null) {
+            open.forEach(transactionInformation -> transactionInformation.getCancellation().cancel(reason));
         }
+    }
 
-        return lastModified;
+    /**
+     * ends a transaction, it no longer holds its snapshot
+     * @return the name of the snapshot if this was its last transaction and the snapshot has to be deleted, null otherwise
+     */
+    private String release(TransactionInformation transactionInformation) {
+        transactions.remove(transactionInformation.getId());
+        forget(transactionInformation);
+        TransactionJournal journal = transactionJournal;
+        if (journal != null) {
+            // does nothing after the commit
+            journal.logAbort(transactionInformation.getId());
+        }
+        String snapshotName = transactionInformation.getSnapshotName();
+        boolean[] last = {false};
+        snapshotHolders.computeIfPresent(snapshotName, (name, holders) -> {
+            holders.remove(transactionInformation);
+            last[0] = holders.isEmpty();
+            return last[0] ? null : holders;
+        });
+        if (!last[0]) {
+            return null;
+        }
+        snapshotIndex.remove(snapshotName);
+        return transactionInformation.isUndoLog() ? null : snapshotName;
     }
 
 
     /**
      * As i simulate long writing, e.g. a user opens a file and writes sth, this
      * methods corresponds to the opening of a file. The ZFSMapper registers this and gives a initiates a transaction
-     * saving the current lastModified timestamp and a Snapshot to which i refer when later after simulating user usage
+     * saving the current version of the file and a Snapshot to which i refer when later after simulating user usage
      * content is commited to the file
      * @param threadName well, the threadName
      * @param fileName well, the fileName
      * @return the transaction information is returned to ensure that the snapshot name is constructed only once and is referred to later
      * only alongside this object, and yes i did rebuild it wrong once
+     *
+     * the file lock makes sure no append on the same file happens between reading the version and taking the snapshot
+     * in TransactionMode.UNDO_LOG no snapshot is taken, the length of the file is remembered instead.
+     * With snapshot sharing the last snapshot is reused if no file changed since, see setShareSnapshots
      */
-    public static synchronized TransactionInformation notifyWrite(String threadName, String fileName){
+    public TransactionInformation notifyWrite(String threadName, String fileName){
 
         String snapshotName= threadName+"-"+ fileName.substring(0,fileName.length()-4);
-        long lastModified= getLastModified(fileName);
-        createSnapshot(snapshotName);
-        TransactionInformation transactionInformation= new TransactionInformation(threadName, fileName, snapshotName, lastModified);
-        transactions
-                .put(
-                        snapshotName,
-                        transactionInformation
-                );
-        return transactionInformation;
+        ZFSEvents.TransactionBegin event = new ZFSEvents.TransactionBegin();
+        event.begin();
+        AdaptiveScheduler scheduler = this.scheduler;
+        // waits outside of the locks, the transaction before me needs them to commit
+        boolean exclusive = scheduler != null && scheduler.admit(fileName);
+        // the same, the transactions holding the snapshots need the locks to finish
+        Semaphore budget = exclusive || transactionMode == TransactionMode.UNDO_LOG ? null : acquireSnapshotPermit();
+        boolean permitUsed = false;
+        boolean started = false;
+        ReentrantLock fileLock = fileLocks.lockFor(fileName);
+        datasetLock.readLock().lock();
+        fileLock.lock();
+        try {
+            long fileVersion = versions.getVersion(fileName);
+            FileVersionRegistry.FileStamp fileStamp = versions.readStamp(fileName, pathOf(fileName));
+            TransactionInformation transactionInformation = null;
+            if (transactionMode == TransactionMode.UNDO_LOG) {
+                long startTick = snapshotIndex.beginCreation();
+                long fileOffset = sizeOf(pathOf(fileName));
+                transactionInformation = new TransactionInformation(threadName, fileName, snapshotName, fileVersion, fileStamp, fileOffset);
+                addHolder(transactionInformation);
+                snapshotIndex.register(snapshotName, startTick);
+            } else if (exclusive) {
+                // nobody else writes the file until i am done, so there is nothing a snapshot would be needed for
+                transactionInformation = new TransactionInformation(threadName, fileName, snapshotName, fileVersion, fileStamp);
+            } else {
+                if (shareSnapshots && !versions.isDetectingExternalChanges()) {
+                    transactionInformation = joinSharedSnapshot(threadName, fileName, fileVersion, fileStamp);
+                }
+                if (transactionInformation != null) {
+                    snapshotName = transactionInformation.getSnapshotName();
+                } else {
+                    snapshotName = snapshotName + "-" + snapshotCounter.incrementAndGet();
+                    long changeCount = changeCounter.get();
+                    long startTick = snapshotIndex.beginCreation();
+                    if (transactionJournal != null) {
+                        transactionJournal.logSnapshot(snapshotName);
+                    }
+                    createSnapshot(snapshotName);
+                    liveSnapshots.add(snapshotName);
+                    metrics.recordLiveSnapshots(1);
+                    permitUsed = true;
+                    transactionInformation = new TransactionInformation(threadName, fileName, snapshotName, fileVersion, fileStamp);
+                    addHolder(transactionInformation);
+                    snapshotIndex.register(snapshotName, startTick);
+                    if (shareSnapshots) {
+                        synchronized (sharingLock) {
+                            shareableSnapshot = snapshotName;
+                            shareableChangeCount = changeCount;
+                        }
+                    }
+                }
+            }
+            transactionInformation.setExclusive(exclusive);
+            if (transactionJournal != null) {
+                transactionJournal.logBegin(transactionInformation);
+            }
+            transactions
+                    .put(
+                            transactionInformation.getId(),
+                            transactionInformation
+                    );
+            openPerFile.computeIfAbsent(fileName, key -> ConcurrentHashMap.newKeySet()).add(transactionInformation);
+            event.threadName = threadName;
+            event.fileName = fileName;
+            event.snapshotName = snapshotName;
+            event.commit();
+            started = true;
+            return transactionInformation;
+        } finally {
+            fileLock.unlock();
+            datasetLock.readLock().unlock();
+            if (exclusive && !started) {
+                scheduler.finish(fileName, true, Outcome.ABORTED);
+            }
+            if (budget != null && !permitUsed) {
+                // joined a shared snapshot or failed
+                budget.release();
+            }
+        }
+    }
+
+    /**
+     * waits until the snapshot budget allows one more snapshot, see setSnapshotBudget
+     * @return the budget the permit was taken from, null if there is no budget
+     */
+    private Semaphore acquireSnapshotPermit() {
+        Semaphore budget = snapshotBudget;
+        if (budget == null || budget.tryAcquire()) {
+            return budget;
+        }
+        long start = System.nanoTime();
+        budget.acquireUninterruptibly();
+        metrics.recordSince(TransactionPhase.SNAPSHOT_BUDGET, start);
+        return budget;
     }
 
     /**
      * when the user usage is simulated e.g. the thread awakes after waiting time in exercise 4 or continues execution after waiting in exercise 3
      * then I attempt to append some content to the file.
-     * @param transactionInformation
-     * @param content
-     * @return
+     * @param transactionInformation the transaction as returned by notifyWrite
+     * @param content the content to append
+     * @return COMMITTED if written, ABORTED if another rollback took my snapshot, ROLLED_BACK if i found a conflict and rolled back
      */
-    public static synchronized int appendToFile(TransactionInformation transactionInformation, String content) {
-
+    public Outcome appendToFile(TransactionInformation transactionInformation, String content) {
+        ZFSEvents.TransactionCommit event = new ZFSEvents.TransactionCommit();
+        event.begin();
+        Outcome outcome;
+        try {
+            outcome = validateAndAppend(transactionInformation, content);
+        } catch (RuntimeException e) {
+            finishScheduling(transactionInformation, Outcome.ABORTED);
+            throw e;
+        }
+        finishScheduling(transactionInformation, outcome);
+        if (outcome.isConflict()) {
+            metrics.recordDiscardedWork(System.nanoTime() - transactionInformation.getStartNanos());
+        }
+        event.threadName = transactionInformation.getThreadName();
+        event.fileName = transactionInformation.getFileName();
+        event.snapshotName = transactionInformation.getSnapshotName();
+        event.outcome = outcome.name();
+        event.commit();
+        return outcome;
+    }
 
-        //checks if the snapshot for this transaction is still existing, if not than we had a rollback to an older snapshot
-        //which affected this snapshot
-        if(!transactions.containsKey(transactionInformation.getSnapshotName())){
-            //System.out.println(transactionInformation.getThreadName()+" aborts as its snapshot was deleted");
-            return 1;
+    /**
+     * tells the scheduler how the transaction ended, releases the file if it was exclusive
+     */
+    private void finishScheduling(TransactionInformation transactionInformation, Outcome outcome) {
+        AdaptiveScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.finish(transactionInformation.getFileName(), transactionInformation.endExclusive(), outcome);
         }
+    }
 
-        //if the snapshot is still existing, i check if the file had been modified, e.g. changes were made as only
-        //true changes alter the lastmodified timestamp
-        //if so rollback
-        long lastModified= getLastModified(transactionInformation.getFileName());
-        if(lastModified != transactionInformation.getFileLastModified()){
+    /**
+     * the logic of appendToFile
+     */
+    private Outcome validateAndAppend(TransactionInformation transactionInformation, String content) {
+
+        // cheap check without any lock first, a changed version stays changed so there is no need to wait for the locks
+        if (isUnchanged(transactionInformation)) {
+            // an exclusive transaction has nobody to share a group with
+            Outcome outcome = groupCommitWindowNanos > 0 && !transactionInformation.isExclusive()
+                    ? groupCommit(transactionInformation, content)
+                    : tryCommit(transactionInformation, content);
+            if (outcome != null) {
+                return outcome;
+            }
+        }
 
-            Timer.start();
+        // file wurde modifziert während ich zugange war, jetzt rollback
+        ZFSEvents.ConflictDetected conflict = new ZFSEvents.ConflictDetected();
+        conflict.threadName = transactionInformation.getThreadName();
+        conflict.fileName = transactionInformation.getFileName();
+        conflict.snapshotName = transactionInformation.getSnapshotName();
+        conflict.commit();
+        if (transactionInformation.isExclusive()) {
+            // an optimistic transaction from before the switch committed, i did not write anything yet, so nothing to undo
+            release(transactionInformation);
+            return Outcome.ABORTED;
+        }
+        ConflictPolicy policy = conflictPolicy;
+        String woundContent = null;
+        if (policy == ConflictPolicy.WOUND_WAIT || policy == ConflictPolicy.WAIT_DIE) {
+            boolean older = isOlderThanChanges(transactionInformation);
+            if (policy == ConflictPolicy.WOUND_WAIT && older) {
+                woundContent = content;
+            } else {
+                Outcome outcome = giveUp(transactionInformation);
+                long priority = transactionInformation.getPriority();
+                if (policy == ConflictPolicy.WOUND_WAIT) {
+                    waitForOthers(transactionInformation, other -> other.getPriority() < priority);
+                } else if (older) {
+                    waitForOthers(transactionInformation, other -> other.getPriority() > priority);
+                }
+                return outcome;
+            }
+        }
+        if (rollbackMode == RollbackMode.FILE || transactionInformation.isUndoLog()) {
+            Outcome outcome = restoreFile(transactionInformation, woundContent);
+            if (outcome != null) {
+                return outcome;
+            }
+        }
+        // the read lock can not be upgraded, so between releasing it and getting the write lock
+        // someone else could have rolled back past my snapshot, in that case there is nothing left to do for me
+        datasetLock.writeLock().lock();
+        try {
+            if (!isAlive(transactionInformation)) {
+                return Outcome.ABORTED;
+            }
             //System.out.println(transactionInformation.getThreadName()+ ": caused rollback on snapshot"+ transactionInformation.getSnapshotName());
-            rollbackToSnapshot(transactionInformation);
-            // file wurde modifziert während ich zugange war, jetzt rollback
+            rollbackToSnapshot(transactionInformation, policy == ConflictPolicy.MINIMAL_CASCADE
+                    ? minimalCascadeTarget(transactionInformation) : transactionInformation.getSnapshotName());
+            // i own the dataset, nobody can commit between the rollback and my append
+            if (woundContent != null && append(transactionInformation, woundContent)) {
+                invalidate(transactionInformation.getFileName(), "commit of " + transactionInformation.getThreadName());
+                return Outcome.COMMITTED;
+            }
             //problem, ander threads könnten auch noch am schreiben sein
             //  - prozesse die ebenfalls begonnen haben zu schrieben vor lastModified können aufhören da Änderung eh nicht übernommen wird
             //  - prozesse die nach lastModified begonnen haben sind ja so gesehen auch von rollback betroffen und müssen aufhören zu schreiben
             //  - rollback führt
-            return 2;
+            return Outcome.ROLLED_BACK;
+        } finally {
+            datasetLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the transaction is older than every transaction that committed to its file since it started,
+     * also if these are not known, f.e. the file was changed by another program
+     */
+    private boolean isOlderThanChanges(TransactionInformation transactionInformation) {
+        SnapshotIndex.Entry own = snapshotIndex.get(transactionInformation.getSnapshotName());
+        ConcurrentSkipListMap<Long, Change> fileChanges = changes.get(transactionInformation.getFileName());
+        if (own == null || fileChanges == null) {
+            return true;
+        }
+        return fileChanges.tailMap(own.getEndTick(), false).values().stream()
+                .allMatch(change -> change.priority() > transactionInformation.getPriority());
+    }
+
+    /**
+     * ends the transaction after a lost conflict without rolling back anything
+     * @return ABORTED
+     */
+    private Outcome giveUp(TransactionInformation transactionInformation) {
+        datasetLock.readLock().lock();
+        try {
+            String unused = release(transactionInformation);
+            if (unused != null) {
+                deleteSnapshot(unused);
+            }
+            return Outcome.ABORTED;
+        } finally {
+            datasetLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * waits until no running transaction on the file of the given one matches anymore, at most as long as the given
+     * one worked. Used by WOUND_WAIT and WAIT_DIE, so the retry does not run into the same transactions again
+     */
+    private void waitForOthers(TransactionInformation transactionInformation, Predicate<TransactionInformation> blocking) {
+        long deadline = System.nanoTime() + (System.nanoTime() - transactionInformation.getStartNanos());
+        while (System.nanoTime() < deadline) {
+            Set<TransactionInformation> open = openPerFile.get(transactionInformation.getFileName());
+            if (open == null || open.stream().noneMatch(other -> !other.getCancellation().isCancelled() && blocking.test(other))) {
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * the newest snapshot in which the file of the transaction still has the content the transaction started with,
+     * a rollback -r to it aborts the least running transactions. Called with the dataset held exclusively
+     * @return the name of the snapshot, the one of the transaction if there is no newer one
+     */
+    private String minimalCascadeTarget(TransactionInformation transactionInformation) {
+        String snapshotName = transactionInformation.getSnapshotName();
+        SnapshotIndex.Entry own = snapshotIndex.get(snapshotName);
+        ConcurrentSkipListMap<Long, Change> fileChanges = changes.get(transactionInformation.getFileName());
+        Long firstChange = own == null || fileChanges == null ? null : fileChanges.higherKey(own.getEndTick());
+        if (firstChange == null) {
+            // changed by someone else, when is not known
+            return snapshotName;
+        }
+        SnapshotIndex.Entry best = own;
+        for (SnapshotIndex.Entry entry : snapshotIndex.newerThan(snapshotName)) {
+            Set<TransactionInformation> holders = snapshotHolders.get(entry.getNameOfSnapshot());
+            boolean realSnapshot = holders != null && !holders.isEmpty() && holders.stream().noneMatch(TransactionInformation::isUndoLog);
+            if (realSnapshot && entry.getStartTick() > own.getEndTick() && entry.getEndTick() < firstChange
+                    && entry.getEndTick() > best.getEndTick()) {
+                best = entry;
+            }
+        }
+        return best.getNameOfSnapshot();
+    }
+
+    /**
+     * the part of appendToFile that runs under the file lock
+     * @return COMMITTED or ABORTED if the snapshot is gone, null if the file was changed and a rollback is needed
+     */
+    private Outcome tryCommit(TransactionInformation transactionInformation, String content) {
+        ReentrantLock fileLock = fileLocks.lockFor(transactionInformation.getFileName());
+        datasetLock.readLock().lock();
+        fileLock.lock();
+        try {
+            //checks if the snapshot for this transaction is still existing, if not than we had a rollback to an older snapshot
+            //which affected this snapshot
+            if (!isAlive(transactionInformation)) {
+                //System.out.println(transactionInformation.getThreadName()+" aborts as its snapshot was deleted");
+                return Outcome.ABORTED;
+            }
+
+            //if the snapshot is still existing, i check again if the file had been modified, now under the file lock
+            //so nobody can commit in between
+            //if not, no conflicts were encountered, therefore the content can be written to the file
+            //the snapshot for this transaction is therefore no longer needed and deleted.
+            //as transactions is a programm intern mirror of the remaining snapshots the entry is deleted here as well
+            if (isUnchanged(transactionInformation)) {
+                boolean written = append(transactionInformation, content);
+                //System.out.println(transactionInformation.getThreadName()+": appended to file "+ transactionInformation.getFileName());
+                String unused = release(transactionInformation);
+                if (written) {
+                    invalidate(transactionInformation.getFileName(), "commit of " + transactionInformation.getThreadName());
+                }
+                if (unused != null) {
+                    deleteSnapshot(unused);
+                }
+                return written ? Outcome.COMMITTED : Outcome.ABORTED;
+            }
+        } finally {
+            fileLock.unlock();
+            datasetLock.readLock().unlock();
+        }
+        return null;
+    }
+
+    /**
+     * writes the content of the transaction and increases the version of the file, the caller holds the file lock
+     * or the dataset exclusively
+     * @return false if the write failed, then the file, its version and the journal say nothing was committed
+     */
+    private boolean append(TransactionInformation transactionInformation, String content) {
+        long appendStart = System.nanoTime();
+        long tick = recordChange(transactionInformation.getFileName(), transactionInformation.getPriority(),
+                appendStart - transactionInformation.getStartNanos());
+        TransactionJournal journal = transactionJournal;
+        if (journal != null) {
+            journal.logAppend(transactionInformation.getId(), transactionInformation.getFileName(),
+                    sizeOf(pathOf(transactionInformation.getFileName())));
+        }
+        try {
+            if (transactionInformation.isUndoLog() && journal == null) {
+                appendJournaled(transactionInformation, content);
+            } else {
+                writeToFile(transactionInformation.getFileName(), List.of(content), true);
+            }
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            forgetChange(transactionInformation.getFileName(), tick);
+            if (journal != null) {
+                journal.logAbort(transactionInformation.getId());
+            }
+            return false;
+        }
+        if (journal != null) {
+            journal.logCommit(transactionInformation.getId());
+        }
+        metrics.recordSince(TransactionPhase.APPEND, appendStart);
+        versions.bump(transactionInformation.getFileName());
+        changeCounter.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * remembers a commit to the file, the commits older than every snapshot are forgotten
+     * @param priority the age of the committing transaction
+     * @param workNanos the time it worked for the commit
+     * @return the tick of the change
+     */
+    private long recordChange(String fileName, long priority, long workNanos) {
+        ConcurrentSkipListMap<Long, Change> fileChanges = changes.computeIfAbsent(fileName, name -> new ConcurrentSkipListMap<>());
+        long tick = snapshotIndex.tick();
+        fileChanges.put(tick, new Change(priority, workNanos, versions.getVersion(fileName)));
+        fileChanges.headMap(snapshotIndex.oldestStartTick()).clear();
+        return tick;
+    }
+
+    /**
+     * the write of a recorded change failed, the file was not changed
+     * @param tick what recordChange returned
+     */
+    private void forgetChange(String fileName, long tick) {
+        ConcurrentSkipListMap<Long, Change> fileChanges = changes.get(fileName);
+        if (fileChanges != null) {
+            fileChanges.remove(tick);
+        }
+    }
+
+    /**
+     * forgets the commits a rollback undid, their work is lost. The caller holds the file lock or the dataset exclusively
+     * @param fileChanges the commits of one file
+     * @param afterTick the end tick of the snapshot the file was restored from
+     */
+    private void discardChanges(ConcurrentSkipListMap<Long, Change> fileChanges, long afterTick) {
+        Map<Long, Change> undone = fileChanges.tailMap(afterTick, false);
+        undone.values().forEach(change -> metrics.recordDiscardedWork(change.workNanos()));
+        undone.clear();
+    }
+
+    /**
+     * joins the commit group of the file, the leader of the group waits for the window and commits everyone
+     * @return the same as tryCommit
+     */
+    private Outcome groupCommit(TransactionInformation transactionInformation, String content) {
+        String fileName = transactionInformation.getFileName();
+        while (true) {
+            CommitGroup group = openGroups.computeIfAbsent(fileName, name -> new CommitGroup());
+            CompletableFuture<Outcome> outcome = group.join(transactionInformation, content);
+            if (outcome == null) {
+                // closed by its leader in between, the next group is opened by me
+                openGroups.remove(fileName, group);
+                continue;
+            }
+            if (group.isLeader(outcome)) {
+                LockSupport.parkNanos(groupCommitWindowNanos);
+                openGroups.remove(fileName, group);
+                group.close();
+                commitGroup(group);
+            }
+            return outcome.join();
+        }
+    }
+
+    /**
+     * tryCommit for a whole group, under the file lock every member is checked, the unchanged ones are appended with
+     * one gathering write and their snapshots are deleted with one call of the backend
+     * @param group the closed group
+     */
+    private void commitGroup(CommitGroup group) {
+        List<TransactionInformation> members = group.getMembers();
+        List<CompletableFuture<Outcome>> outcomes = group.getOutcomes();
+        String fileName = members.get(0).getFileName();
+        List<TransactionInformation> ready = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        List<Outcome> results = new ArrayList<>();
+        ReentrantLock fileLock = fileLocks.lockFor(fileName);
+        datasetLock.readLock().lock();
+        fileLock.lock();
+        try {
+            for (int i = 0; i < members.size(); i++) {
+                TransactionInformation member = members.get(i);
+                if (!isAlive(member)) {
+                    results.add(Outcome.ABORTED);
+                } else if (isUnchanged(member)) {
+                    ready.add(member);
+                    contents.add(group.getContents().get(i));
+                    results.add(Outcome.COMMITTED);
+                } else {
+                    results.add(null);
+                }
+            }
+            if (!ready.isEmpty()) {
+                long appendStart = System.nanoTime();
+                long tick = recordChange(fileName, ready.stream().mapToLong(TransactionInformation::getPriority).min().getAsLong(),
+                        ready.stream().mapToLong(member -> appendStart - member.getStartNanos()).sum());
+                UndoJournal journal = undoJournal;
+                TransactionJournal transactionJournal = this.transactionJournal;
+                if (transactionJournal != null) {
+                    long offset = sizeOf(pathOf(fileName));
+                    ready.forEach(member -> transactionJournal.logAppend(member.getId(), fileName, offset));
+                }
+                List<TransactionInformation> journaled = transactionJournal != null ? List.of()
+                        : ready.stream().filter(TransactionInformation::isUndoLog).toList();
+                for (TransactionInformation member : journaled) {
+                    logAppend(journal, member);
+                }
+                boolean written = true;
+                try {
+                    writeToFile(fileName, contents, true);
+                } catch (UncheckedIOException e) {
+                    e.printStackTrace();
+                    written = false;
+                } finally {
+                    for (TransactionInformation member : journaled) {
+                        logDone(journal, member);
+                    }
+                }
+                if (written) {
+                    if (transactionJournal != null) {
+                        ready.forEach(member -> transactionJournal.logCommit(member.getId()));
+                    }
+                    for (int i = 0; i < ready.size(); i++) {
+                        metrics.recordSince(TransactionPhase.APPEND, appendStart);
+                    }
+                    versions.bump(fileName);
+                    changeCounter.incrementAndGet();
+                } else {
+                    // nobody of the group committed, release logs their abort
+                    forgetChange(fileName, tick);
+                    for (int i = 0; i < results.size(); i++) {
+                        if (results.get(i) == Outcome.COMMITTED) {
+                            results.set(i, Outcome.ABORTED);
+                        }
+                    }
+                }
+                List<String> snapshotNames = new ArrayList<>();
+                for (TransactionInformation member : ready) {
+                    String unused = release(member);
+                    if (unused != null) {
+                        snapshotNames.add(unused);
+                    }
+                }
+                if (written) {
+                    invalidate(fileName, "group commit of " + ready.size() + " transactions");
+                    metrics.recordCommitGroup(ready.size());
+                }
+                deleteSnapshots(snapshotNames);
+            }
+        } catch (RuntimeException e) {
+            // the followers must not wait forever
+            outcomes.forEach(outcome -> outcome.completeExceptionally(e));
+            throw e;
+        } finally {
+            fileLock.unlock();
+            datasetLock.readLock().unlock();
+        }
+        for (int i = 0; i < outcomes.size(); i++) {
+            outcomes.get(i).complete(results.get(i));
+        }
+    }
+
+    /**
+     * the append of an undo log transaction without a TransactionJournal, framed by its records in the UndoJournal.
+     * The file has the length of the start of the transaction, that was validated before
+     */
+    private void appendJournaled(TransactionInformation transactionInformation, String content) {
+        UndoJournal journal = undoJournal;
+        logAppend(journal, transactionInformation);
+        try {
+            writeToFile(transactionInformation.getFileName(), List.of(content), true);
+        } finally {
+            // a failed write was cut back to the start already
+            logDone(journal, transactionInformation);
+        }
+    }
+
+    private static void logAppend(UndoJournal journal, TransactionInformation transactionInformation) {
+        try {
+            journal.logAppend(transactionInformation.getId(), transactionInformation.getFileName(), transactionInformation.getFileOffset());
+        } catch (IOException e) {
+            System.err.println("Failure on writing the undo journal, the append of " + transactionInformation.getSnapshotName() + " can not be undone after a crash");
+            e.printStackTrace();
+        }
+    }
+
+    private static void logDone(UndoJournal journal, TransactionInformation transactionInformation) {
+        try {
+            journal.logDone(transactionInformation.getId());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
+    /**
+     * the conflict check, timed as CONFLICT_CHECK. An undo log transaction also needs the file to have the length
+     * it had at the start, this catches appends of other programs without comparing modification times
+     * @return true if the file was not changed since the transaction started
+     */
+    private boolean isUnchanged(TransactionInformation transactionInformation) {
+        long start = System.nanoTime();
+        boolean unchanged = matchesFile(transactionInformation);
+        metrics.recordSince(TransactionPhase.CONFLICT_CHECK, start);
+        return unchanged;
+    }
 
-        //no conflicts were encountered, therefore the content can be written to the file
-        //the snapshot for this transaction is therefore no longer needed and deleted.
-        //as transactions is a programm intern mirror of the remaining snapshots the entry is deleted here as well
-        doCommand("echo '"+content+"' >> "+ pathFileAccess +transactionInformation.getFileName()
-        );
-        //System.out.println(transactionInformation.getThreadName()+": appended to file "+ transactionInformation.getFileName());
-        deleteSnapshot(transactionInformation.getSnapshotName());
-        transactions.remove(transactionInformation.getSnapshotName());
-        return 0;
+    private boolean matchesFile(TransactionInformation transactionInformation) {
+        Path path = pathOf(transactionInformation.getFileName());
+        return versions.isUnchanged(transactionInformation, path)
+                && (!transactionInformation.isUndoLog() || sizeOf(path) == transactionInformation.getFileOffset());
     }
 
     /**
      * creates a File with Content
      * @param fileName well, the fileName
      * @param fileContent well, the file Content
+     * @throws UncheckedIOException if the file could not be written, its version stays the same
+     */
+    public void createFileWithContent(String fileName, String fileContent){
+        writeToFile(fileName, List.of(fileContent), false);
+        versions.bump(fileName);
+        changeCounter.incrementAndGet();
+        invalidate(fileName, fileName + " was overwritten");
+    }
+
+    /**
+     * writes directly through a FileChannel, no process is spawned and the content is written as it is, quotes included.
+     * Like echo a line break is added at the end of every content. Several contents are written with one gathering
+     * write (writev), f.e. the appends of a commit group
+     * @param fileName well, the fileName
+     * @param contents the contents to write, one after another
+     * @param append true appends to the file (echo >>), false replaces the content (echo >)
+     * @throws UncheckedIOException if the write failed, a failed append is cut back to the length the file had before
      */
-    public static void createFileWithContent(String fileName, String fileContent){
-        doCommand("echo '"+fileContent+"' > "+ pathFileAccess +fileName);
+    private void writeToFile(String fileName, List<String> contents, boolean append) {
+        ByteBuffer[] buffers = new ByteBuffer[contents.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap((contents.get(i) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        OpenOption mode = append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        backend.beginWrite(fileName);
+        try (FileChannel channel = FileChannel.open(Path.of(getFileAccessPath() + fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            long length = channel.size();
+            try {
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                if (forceOnWrite) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                if (append) {
+                    try {
+                        channel.truncate(length);
+                    } catch (IOException truncateFailure) {
+                        e.addSuppressed(truncateFailure);
+                    }
+                }
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failure on writing to " + fileName, e);
+        } finally {
+            backend.endWrite(fileName);
+        }
     }
 
     /**
-     * creates a zfs snapshot
+     * creates a snapshot using the backend
      * @param nameOfSnapshot the name of the snapshot
      */
-    public static void createSnapshot(String nameOfSnapshot){
-        String path= pathZFSCommands +"@"+nameOfSnapshot;
-        doCommand("sudo zfs snapshot "+path);
+    public void createSnapshot(String nameOfSnapshot){
+        ZFSEvents.SnapshotCreate event = new ZFSEvents.SnapshotCreate();
+        event.begin();
+        long start = System.nanoTime();
+        backend.createSnapshot(nameOfSnapshot);
+        metrics.recordSince(TransactionPhase.SNAPSHOT_CREATE, start);
+        event.snapshotName = nameOfSnapshot;
+        event.commit();
         //System.out.println("created snapshot "+ nameOfSnapshot);
     }
 
     /**
-     * deletes a zfs snapshot according to the name, the path is constructed using the basePath
+     * deletes a snapshot according to the name. Its permit is given back once the backend really deleted it, with
+     * the BatchingSnapshotBackend that is after this returned
      * @param nameOfSnapshot the name of the snapshot
      */
-    public static synchronized void deleteSnapshot(String nameOfSnapshot){
-        String path= pathZFSCommands +"@"+nameOfSnapshot;
-        doCommand("sudo zfs destroy "+path);
+    public void deleteSnapshot(String nameOfSnapshot){
+        ZFSEvents.SnapshotDestroy event = new ZFSEvents.SnapshotDestroy();
+        event.begin();
+        long start = System.nanoTime();
+        backend.deleteSnapshotAsync(nameOfSnapshot).whenComplete((done, failure) -> {
+            if (failure != null) {
+                destroyFailed(List.of(nameOfSnapshot), failure);
+                return;
+            }
+            metrics.recordSince(TransactionPhase.DESTROY, start);
+            snapshotGone(nameOfSnapshot);
+            event.snapshotName = nameOfSnapshot;
+            event.commit();
+        });
+    }
+
+    /**
+     * deletes several snapshots with one call of the backend, f.e. the ones of a commit group
+     * @param namesOfSnapshots the names of the snapshots
+     */
+    public void deleteSnapshots(List<String> namesOfSnapshots) {
+        if (namesOfSnapshots.isEmpty()) {
+            return;
+        }
+        if (namesOfSnapshots.size() == 1) {
+            deleteSnapshot(namesOfSnapshots.get(0));
+            return;
+        }
+        // one event per snapshot, all of them last as long as the one call of the backend
+        List<ZFSEvents.SnapshotDestroy> events = new ArrayList<>();
+        for (String nameOfSnapshot : namesOfSnapshots) {
+            ZFSEvents.SnapshotDestroy event = new ZFSEvents.SnapshotDestroy();
+            event.begin();
+            event.snapshotName = nameOfSnapshot;
+            events.add(event);
+        }
+        long start = System.nanoTime();
+        backend.deleteSnapshotsAsync(namesOfSnapshots).whenComplete((done, failure) -> {
+            if (failure != null) {
+                destroyFailed(namesOfSnapshots, failure);
+                return;
+            }
+            metrics.recordSince(TransactionPhase.DESTROY, start);
+            namesOfSnapshots.forEach(this::snapshotGone);
+            events.forEach(ZFSEvents.SnapshotDestroy::commit);
+        });
+    }
+
+    /**
+     * the snapshots might still exist, so they keep their permits until deleteAllSnapshot
+     */
+    private void destroyFailed(List<String> namesOfSnapshots, Throwable failure) {
+        System.err.println("Failure on deleting the snapshots " + namesOfSnapshots);
+        failure.printStackTrace();
     }
 
     /**
      * deletes all snapshot, usually used on initialization if some snapshots are remaining from testing
      * avoids collision due to same name conflicts
      */
-    public static void deleteAllSnapshot(){
-        doCommand("sudo zfs destroy "+pathZFSCommands+"@%");
+    public void deleteAllSnapshot(){
+        backend.deleteAllSnapshots();
+        new ArrayList<>(liveSnapshots).forEach(this::snapshotGone);
+        if (transactionJournal != null) {
+            transactionJournal.logDestroyAll();
+        }
     }
 
 
@@ -238,14 +1840,12 @@ public class ZFSMapper {
      * here as well
      * @return the fileOptions
      */
-    public static Map<Integer,String> getAllFiles(){
+    public Map<Integer,String> getAllFiles(){
         Map<Integer,String> fileOptions= new HashMap<>();
         int counter=1;
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Path.of(pathFileAccess))) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Path.of(getFileAccessPath()))) {
             for (Path entry : stream) {
                 if (Files.isRegularFile(entry)) {
-                    // Print the name of the file (without the full path)
-                    System.out.println(entry.getFileName());
                     fileOptions.put(counter++, String.valueOf(entry.getFileName()));
                 }
             }
@@ -257,54 +1857,30 @@ public class ZFSMapper {
 
 
     /**
-     * this gets all snapshot names and is needed for the filling of the transaction map after a rollback -r command was executed as
-     * described for the rollbackToSnapshot method
+     * this gets all snapshot names, the rollback does not need it anymore but the periodic reconcile compares it
+     * with the snapshots known in memory
      * @return all names of the current ZFS snapshots
      */
-    public static Set<String> getAllSnapshots(){
-        Set<String> allSnapshot= new HashSet<>();
-        try {
-            // Run the "zfs list -t snapshot" command
-            ProcessBuilder processBuilder = new ProcessBuilder("sudo","zfs", "list", "-t", "snapshot");
-            Process process = processBuilder.start();
-
-            // Capture the output of the command
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Split the line and extract the snapshot name (assuming the name is the first column)
-                String[] parts = line.split("\\s+");
-                if (parts.length > 0) {
-                    StringTokenizer tokenizer= new StringTokenizer(parts[0], "@");
-                    if(tokenizer.countTokens()==1)
-                        continue;
-                    tokenizer.nextToken();
-                    String name= tokenizer.nextToken();
-                    allSnapshot.add(name);
-                }
-            }
-            return allSnapshot;
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return new HashSet<>();
+    public Set<String> getAllSnapshots(){
+        long start = System.nanoTime();
+        Set<String> snapshots = backend.getAllSnapshots();
+        metrics.recordSince(TransactionPhase.ZFS_LIST, start);
+        return snapshots;
     }
 
     /**
      * DEBUG: showing all Snapshots
      */
-    public static void showSnapshots() {
-        // Run zfs command to show snapshots
-        String command = "sudo zfs list -t snapshot";
-        doCommand(command);
+    public void showSnapshots() {
+        backend.showSnapshots();
     }
 
     /**
      * DEBUG: showing all Files
      */
-    public static void showFiles() {
+    public void showFiles() {
         // Run ls command to list files in the ZFS mounted directory
-        String command = "ls -l " + pathFileAccess;
+        String command = "ls -l " + getFileAccessPath();
         doCommand(command);
     }
 
@@ -312,7 +1888,7 @@ public class ZFSMapper {
      * DEBUG/TESTING: removes the file
      * @param fileName well, the fileName
      */
-    public static void removeFile(String fileName){
+    public void removeFile(String fileName){
         String command = "sudo rm "+ fileName;
         doCommand(command);
     }
@@ -321,64 +1897,25 @@ public class ZFSMapper {
      * DEBUG/TESTING: shows the file content
      * @param fileName well, the fileName
      */
-    public static void showFileContent(String fileName) {
+    public void showFileContent(String fileName) {
         // Run ls command to list files in the ZFS mounted directory
         System.out.println("showing content of "+ fileName);
-        String command = "cat " + pathFileAccess+fileName;
+        String command = "cat " + getFileAccessPath()+fileName;
         doCommand(command);
     }
 
     /**
-     * basic mean approximation of values
-     * @return mean of rollbackTimes in ms
+     * @return the latency histograms of all transaction phases
      */
-    public static double calculateMeanTime() {
-        if (timings.isEmpty()) {
-            System.out.println("Times taken is empty");
-            return 0;
-        }
-
-        long sum = 0;
-        for (Long time : timings) {
-            sum += time;
-        }
-
-        return (double) sum / timings.size();
+    public TransactionMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * most basic java Timer using System.nanoTime
+     * basic mean approximation of values
+     * @return mean of rollbackTimes in ms
      */
-    private static class Timer {
-        private static long startTime;
-        private static long endTime;
-
-        public static void start() {
-            startTime = System.nanoTime();
-        }
-
-        public static void stop() {
-            endTime = System.nanoTime();
-        }
-        public static long getElapsedTimeNanos() {
-            return endTime - startTime;
-        }
-
-
-        public static long getElapsedTimeMillis() {
-            return (endTime - startTime) / 1_000_000;
-        }
-
-        public static long getElapsedTimeSeconds() {
-            return (endTime - startTime) / 1_000_000_000;
-        }
+    public double calculateMeanTime() {
+        return metrics.get(TransactionPhase.ROLLBACK).getMeanNanos() / 1_000_000.0;
     }
-
-
-
-
-
-
-
-
 }
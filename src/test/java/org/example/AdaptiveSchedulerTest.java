@@ -0,0 +1,102 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * halfLife 0 turns the decay off, so the rates only change with the outcomes
+ */
+class AdaptiveSchedulerTest {
+
+    @Test
+    void conflictsSwitchTheFileToExclusive() {
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(0.5, 0.1, 0.5, 0, 1000);
+        assertFalse(scheduler.admit("f"));
+        scheduler.finish("f", false, Outcome.COMMITTED);
+        assertEquals(AdmissionMode.OPTIMISTIC, scheduler.getMode("f"));
+
+        scheduler.finish("f", false, Outcome.ROLLED_BACK);
+        assertEquals(0.5, scheduler.getConflictRate("f"), 1e-9);
+        assertEquals(AdmissionMode.EXCLUSIVE, scheduler.getMode("f"));
+        assertEquals(1, scheduler.getSwitchesToExclusive());
+        assertTrue(scheduler.getExclusiveFiles().containsKey("f"));
+        assertEquals(AdmissionMode.OPTIMISTIC, scheduler.getMode("other"));
+    }
+
+    @Test
+    void exclusiveTransactionsQueueAndTheFileCoolsDown() throws Exception {
+        AdaptiveScheduler scheduler = hotScheduler(1000);
+        assertTrue(scheduler.admit("f"));
+
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> scheduler.admit("f"));
+        Thread.sleep(50);
+        assertFalse(second.isDone(), "the second one waits for the first");
+        scheduler.finish("f", true, Outcome.COMMITTED);
+        assertTrue(second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getQueuedAdmissions());
+        // the queued one counts as a conflict, the file stays exclusive as long as someone holds it
+        assertEquals(AdmissionMode.EXCLUSIVE, scheduler.getMode("f"));
+
+        scheduler.finish("f", true, Outcome.COMMITTED);
+        assertTrue(scheduler.admit("f"));
+        assertEquals(0, scheduler.getConflictRate("f"), 1e-9);
+        scheduler.finish("f", true, Outcome.COMMITTED);
+        assertEquals(AdmissionMode.OPTIMISTIC, scheduler.getMode("f"));
+        assertEquals(1, scheduler.getSwitchesToOptimistic());
+        assertEquals(3, scheduler.getExclusiveAdmissions());
+    }
+
+    @Test
+    void waitingTooLongAdmitsOptimistically() {
+        AdaptiveScheduler scheduler = hotScheduler(50);
+        assertTrue(scheduler.admit("f"));
+        long start = System.nanoTime();
+        assertFalse(scheduler.admit("f"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, scheduler.getTimedOutAdmissions());
+        assertEquals(AdmissionMode.EXCLUSIVE, scheduler.getMode("f"));
+    }
+
+    @Test
+    void interruptEndsTheWait() {
+        AdaptiveScheduler scheduler = hotScheduler(60_000);
+        assertTrue(scheduler.admit("f"));
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(scheduler.admit("f"));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void resetForgetsTheFiles() {
+        AdaptiveScheduler scheduler = hotScheduler(1000);
+        scheduler.reset();
+        assertEquals(AdmissionMode.OPTIMISTIC, scheduler.getMode("f"));
+        assertEquals(0, scheduler.getSwitchesToExclusive());
+    }
+
+    @Test
+    void coolRateAboveHotRateIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveScheduler(0.1, 0.3, 0.2, 1000, 1000));
+    }
+
+    /**
+     * alpha 1 so the last outcome is the rate, f is exclusive after one rollback
+     */
+    private static AdaptiveScheduler hotScheduler(long maxWaitMillis) {
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(0.3, 0.1, 1.0, 0, maxWaitMillis);
+        scheduler.finish("f", false, Outcome.ROLLED_BACK);
+        assertEquals(AdmissionMode.EXCLUSIVE, scheduler.getMode("f"));
+        return scheduler;
+    }
+}
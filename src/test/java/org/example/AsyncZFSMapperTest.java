@@ -0,0 +1,79 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncZFSMapperTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void transactionsOnOwnFilesAllCommit() throws Exception {
+        Path root = directory.resolve("fs");
+        ShardRouter router = new ShardRouter(new DirectoryCopyBackend(root + "/"));
+        int files = 200;
+        for (int i = 0; i < files; i++) {
+            router.createFileWithContent("file" + i + ".txt", "init");
+        }
+        List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+        try (AsyncZFSMapper mapper = new AsyncZFSMapper(router)) {
+            for (int i = 0; i < files; i++) {
+                String content = "Writer-" + i;
+                outcomes.add(mapper.begin("Writer-" + i, "file" + i + ".txt")
+                        .thenCompose(transactionInformation -> mapper.commit(transactionInformation, content)));
+            }
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < files; i++) {
+            assertEquals(Outcome.COMMITTED, outcomes.get(i).join());
+            assertEquals(List.of("init", "Writer-" + i), Files.readAllLines(root.resolve("file" + i + ".txt")));
+        }
+        assertEquals(0, router.getShards().get(0).getLiveSnapshots());
+        router.close();
+    }
+
+    @Test
+    void conflictingTransactionsAllComplete() throws Exception {
+        Path root = directory.resolve("fs");
+        ShardRouter router = new ShardRouter(new DirectoryCopyBackend(root + "/"));
+        int files = 5;
+        for (int i = 0; i < files; i++) {
+            router.createFileWithContent("file" + i + ".txt", "init");
+        }
+        int transactions = 1000;
+        List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+        try (AsyncZFSMapper mapper = new AsyncZFSMapper(router)) {
+            for (int i = 0; i < transactions; i++) {
+                String threadName = "Writer-" + i;
+                outcomes.add(mapper.begin(threadName, "file" + (i % files) + ".txt")
+                        .thenCompose(transactionInformation -> mapper.commit(transactionInformation, threadName)));
+            }
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        }
+        long committed = outcomes.stream().filter(outcome -> !outcome.join().isConflict()).count();
+        assertTrue(committed > 0, "nobody committed");
+        for (int i = 0; i < files; i++) {
+            assertEquals("init", firstLine(root.resolve("file" + i + ".txt")));
+        }
+        // every transaction ended, so no snapshot is left
+        assertEquals(0, router.getShards().get(0).getLiveSnapshots());
+        assertTrue(router.getShards().get(0).getAllSnapshots().isEmpty());
+        router.close();
+    }
+
+    private static String firstLine(Path path) throws IOException {
+        return Files.readAllLines(path).get(0);
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the batch window is long, so everything submitted before the flush ends up in one batch
+ */
+class BatchingSnapshotBackendTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void failedDeletionFailsOnlyItsFuture() {
+        BatchingSnapshotBackend backend = new BatchingSnapshotBackend(new FailingBackend(directory.resolve("fs") + "/"), 100_000, 64);
+        for (String name : List.of("a", "Broken", "b")) {
+            backend.createSnapshot(name);
+        }
+
+        CompletableFuture<Void> a = backend.deleteSnapshotAsync("a");
+        CompletableFuture<Void> broken = backend.deleteSnapshotAsync("Broken");
+        CompletableFuture<Void> b = backend.deleteSnapshotAsync("b");
+        backend.flush();
+
+        assertTrue(a.isDone() && !a.isCompletedExceptionally());
+        assertTrue(b.isDone() && !b.isCompletedExceptionally());
+        assertTrue(broken.isCompletedExceptionally());
+        assertEquals(Set.of("Broken"), backend.getAllSnapshots());
+        // three creations, then one call for the deletions and as it failed one per name
+        assertEquals(3 + 1 + 3, backend.getBackendCalls());
+    }
+
+    @Test
+    void mapperKeepsTheSnapshotItCouldNotDestroy() {
+        BatchingSnapshotBackend backend = new BatchingSnapshotBackend(new FailingBackend(directory.resolve("fs") + "/"), 100_000, 64);
+        ZFSMapper mapper = new ZFSMapper(backend);
+        mapper.createFileWithContent("a.txt", "a");
+
+        TransactionInformation broken = mapper.notifyWrite("Broken", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(broken, "Broken"));
+        TransactionInformation fine = mapper.notifyWrite("Fine", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(fine, "Fine"));
+        backend.flush();
+
+        assertEquals(1, mapper.getLiveSnapshots());
+        assertEquals(Set.of(broken.getSnapshotName()), mapper.getAllSnapshots());
+    }
+
+    /**
+     * reports a failure for every snapshot whose name starts with Broken and keeps it
+     */
+    private static class FailingBackend extends DirectoryCopyBackend {
+
+        FailingBackend(String fileAccessPath) {
+            super(fileAccessPath);
+        }
+
+        @Override
+        public boolean deleteSnapshots(Collection<String> namesOfSnapshots) {
+            boolean success = true;
+            for (String name : namesOfSnapshots) {
+                if (name.startsWith("Broken")) {
+                    success = false;
+                } else {
+                    deleteSnapshot(name);
+                }
+            }
+            return success;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the conflict handling of the ZFSMapper end to end on the DirectoryCopyBackend, the transactions run one after another
+ * in the order of the test so the outcome of each is known
+ */
+class DirectoryRollbackTest {
+
+    @TempDir
+    Path directory;
+
+    private Path root;
+    private ZFSMapper mapper;
+
+    @BeforeEach
+    void setUp() {
+        root = directory.resolve("fs");
+        mapper = new ZFSMapper(new DirectoryCopyBackend(root + "/"));
+        mapper.createFileWithContent("a.txt", "a");
+        mapper.createFileWithContent("b.txt", "b");
+    }
+
+    @Test
+    void transactionWithoutConflictCommits() throws IOException {
+        TransactionInformation transaction = mapper.notifyWrite("T1", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(transaction, "T1"));
+        assertEquals(List.of("a", "T1"), lines("a.txt"));
+        assertEquals(0, mapper.getLiveSnapshots());
+        assertTrue(mapper.getAllSnapshots().isEmpty());
+    }
+
+    @Test
+    void datasetRollbackAbortsTheYoungerTransactions() throws IOException {
+        TransactionInformation older = mapper.notifyWrite("Older", "a.txt");
+        TransactionInformation committer = mapper.notifyWrite("Committer", "a.txt");
+        TransactionInformation younger = mapper.notifyWrite("Younger", "b.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(committer, "Committer"));
+
+        assertEquals(Outcome.ROLLED_BACK, mapper.appendToFile(older, "Older"));
+        // the rollback -r to the snapshot of Older took the commit and the snapshot of Younger with it
+        assertEquals(List.of("a"), lines("a.txt"));
+        assertTrue(younger.getCancellation().isCancelled());
+        assertEquals(Outcome.ABORTED, mapper.appendToFile(younger, "Younger"));
+        assertEquals(List.of("b"), lines("b.txt"));
+        assertEquals(0, mapper.getLiveSnapshots());
+        assertTrue(mapper.getAllSnapshots().isEmpty());
+    }
+
+    @Test
+    void survivorOfADatasetRollbackCanStillCommit() throws IOException {
+        TransactionInformation survivor = mapper.notifyWrite("Survivor", "b.txt");
+        TransactionInformation older = mapper.notifyWrite("Older", "a.txt");
+        TransactionInformation committerB = mapper.notifyWrite("CommitterB", "b.txt");
+        TransactionInformation committerA = mapper.notifyWrite("CommitterA", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(committerB, "CommitterB"));
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(committerA, "CommitterA"));
+        assertEquals(Outcome.ROLLED_BACK, mapper.appendToFile(older, "Older"));
+        assertEquals(List.of("b"), lines("b.txt"));
+
+        // the rollback took the commit of CommitterB back, b has the content Survivor started with again
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(survivor, "Survivor"));
+        assertEquals(List.of("b", "Survivor"), lines("b.txt"));
+    }
+
+    @Test
+    void fileRollbackOnlyRestoresTheFile() throws IOException {
+        mapper.setRollbackMode(RollbackMode.FILE);
+        TransactionInformation older = mapper.notifyWrite("Older", "a.txt");
+        TransactionInformation onOtherFile = mapper.notifyWrite("OnOtherFile", "b.txt");
+        TransactionInformation committer = mapper.notifyWrite("Committer", "a.txt");
+        TransactionInformation younger = mapper.notifyWrite("Younger", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(committer, "Committer"));
+
+        assertEquals(Outcome.ROLLED_BACK, mapper.appendToFile(older, "Older"));
+        assertEquals(List.of("a"), lines("a.txt"));
+        // younger on the same file is aborted like a rollback -r would, the other file goes on
+        assertEquals(Outcome.ABORTED, mapper.appendToFile(younger, "Younger"));
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(onOtherFile, "OnOtherFile"));
+        assertEquals(List.of("b", "OnOtherFile"), lines("b.txt"));
+        assertEquals(0, mapper.getLiveSnapshots());
+    }
+
+    @Test
+    void woundWaitAppendsRightAfterTheRollback() throws IOException {
+        mapper.setConflictPolicy(ConflictPolicy.WOUND_WAIT);
+        TransactionInformation older = mapper.notifyWrite("Older", "a.txt");
+        TransactionInformation younger = mapper.notifyWrite("Younger", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(younger, "Younger"));
+
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(older, "Older"));
+        assertEquals(List.of("a", "Older"), lines("a.txt"));
+    }
+
+    @Test
+    void failedWriteIsNotCommitted() throws IOException {
+        TransactionInformation failing = mapper.notifyWrite("Failing", "a.txt");
+        Files.delete(root.resolve("a.txt"));
+        Files.createDirectory(root.resolve("a.txt"));
+        assertEquals(Outcome.ABORTED, mapper.appendToFile(failing, "Failing"));
+
+        Files.delete(root.resolve("a.txt"));
+        Files.writeString(root.resolve("a.txt"), "a\n");
+        // the version did not change, so the next one on the file commits
+        TransactionInformation next = mapper.notifyWrite("Next", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(next, "Next"));
+        assertEquals(List.of("a", "Next"), lines("a.txt"));
+    }
+
+    @Test
+    void exclusiveTransactionBeatenByAnOptimisticOneIsAborted() throws IOException {
+        AdaptiveScheduler scheduler = new AdaptiveScheduler(0.3, 0.1, 1.0, 0, 1000);
+        mapper.setScheduler(scheduler);
+        TransactionInformation optimistic = mapper.notifyWrite("Optimistic", "a.txt");
+        scheduler.finish("a.txt", false, Outcome.ROLLED_BACK);
+        TransactionInformation exclusive = mapper.notifyWrite("Exclusive", "a.txt");
+        assertTrue(exclusive.isExclusive());
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(optimistic, "Optimistic"));
+
+        // the exclusive one wrote nothing and rolled nothing back
+        assertEquals(Outcome.ABORTED, mapper.appendToFile(exclusive, "Exclusive"));
+        assertEquals(List.of("a", "Optimistic"), lines("a.txt"));
+        assertEquals(0, mapper.getLiveSnapshots());
+    }
+
+    private List<String> lines(String fileName) throws IOException {
+        return Files.readAllLines(root.resolve(fileName));
+    }
+}
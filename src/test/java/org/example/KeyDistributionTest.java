@@ -0,0 +1,84 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyDistributionTest {
+
+    private static final int PICKS = 100_000;
+
+    @Test
+    void sequentialGoesRoundTheFiles() {
+        KeyDistribution distribution = KeyDistribution.sequential(3);
+        int[] expected = {0, 1, 2, 0, 1, 2, 0};
+        for (int file : expected) {
+            assertEquals(file, distribution.next());
+        }
+    }
+
+    @Test
+    void uniformHitsEveryFileAboutEqually() {
+        int[] counts = histogram(KeyDistribution.uniform(10), 10);
+        for (int count : counts) {
+            assertEquals(PICKS / 10.0, count, PICKS / 10.0 * 0.1);
+        }
+    }
+
+    @Test
+    void zipfianPrefersTheFirstFiles() {
+        int[] counts = histogram(KeyDistribution.zipfian(100, 0.99), 100);
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10] && counts[10] > counts[99]);
+        // 1/(i+1)^0.99 over 100 files gives the first one about 19%
+        assertEquals(0.19, counts[0] / (double) PICKS, 0.02);
+    }
+
+    @Test
+    void zipfianWithExponentZeroIsUniform() {
+        int[] counts = histogram(KeyDistribution.zipfian(10, 0), 10);
+        for (int count : counts) {
+            assertEquals(PICKS / 10.0, count, PICKS / 10.0 * 0.1);
+        }
+    }
+
+    @Test
+    void hotspotSendsMostTransactionsToTheHotFiles() {
+        int[] counts = histogram(KeyDistribution.hotspot(100, 0.1, 0.9), 100);
+        int hot = 0;
+        for (int i = 0; i < 10; i++) {
+            hot += counts[i];
+        }
+        assertEquals(0.9, hot / (double) PICKS, 0.01);
+    }
+
+    @Test
+    void hotspotWithOnlyHotFilesStaysInRange() {
+        histogram(KeyDistribution.hotspot(3, 1.0, 0.5), 3);
+    }
+
+    @Test
+    void fromArgumentsPicksTheDistribution() {
+        KeyDistribution sequential = KeyDistribution.fromArguments(new Arguments(new String[]{"distribution=sequential"}), 2);
+        assertEquals(0, sequential.next());
+        assertEquals(1, sequential.next());
+        histogram(KeyDistribution.fromArguments(new Arguments(new String[]{"distribution=zipf", "zipfExponent=1.2"}), 5), 5);
+        histogram(KeyDistribution.fromArguments(new Arguments(new String[0]), 5), 5);
+        assertThrows(IllegalArgumentException.class,
+                () -> KeyDistribution.fromArguments(new Arguments(new String[]{"distribution=gauss"}), 5));
+    }
+
+    /**
+     * fails if a pick is out of range
+     */
+    private static int[] histogram(KeyDistribution distribution, int files) {
+        int[] counts = new int[files];
+        for (int i = 0; i < PICKS; i++) {
+            int file = distribution.next();
+            assertTrue(file >= 0 && file < files, "file " + file + " out of range");
+            counts[file]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,95 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0, histogram.getMeanNanos());
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10, histogram.getPercentileNanos(50));
+        assertEquals(20, histogram.getPercentileNanos(100));
+        assertEquals(1, histogram.getPercentileNanos(0));
+    }
+
+    @Test
+    void percentilesAreWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertWithin(50_000_000, histogram.getPercentileNanos(50));
+        assertWithin(90_000_000, histogram.getPercentileNanos(90));
+        assertWithin(99_900_000, histogram.getPercentileNanos(99.9));
+        assertEquals(100_000_000, histogram.getPercentileNanos(100));
+        assertEquals(100_000_000, histogram.getMaxNanos());
+        assertEquals(50_000_500, histogram.getMeanNanos(), 1);
+    }
+
+    @Test
+    void percentileNeverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+        assertEquals(1_000_001, histogram.getPercentileNanos(99));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(100);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, histogram.getCount());
+        assertEquals(100, histogram.getPercentileNanos(50), 100 * 0.04);
+    }
+
+    @Test
+    void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(12345);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    /**
+     * the upper bound of the bucket is returned, so the value is at most about 3% too large and never smaller
+     */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.04, "expected about " + expected + " but was " + actual);
+    }
+}
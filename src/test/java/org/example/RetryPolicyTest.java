@@ -0,0 +1,62 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @Test
+    void noBackoffRetriesAtOnce() {
+        RetryPolicy policy = new RetryPolicy(3, RetryPolicy.Backoff.NONE, 10, 1000);
+        assertEquals(0, policy.delayMillis(0));
+        assertEquals(0, policy.delayMillis(5));
+        assertEquals(0, RetryPolicy.NO_RETRY.getMaxRetries());
+    }
+
+    @Test
+    void exponentialDoublesUpToMax() {
+        RetryPolicy policy = new RetryPolicy(10, RetryPolicy.Backoff.EXPONENTIAL, 10, 1000);
+        assertEquals(10, policy.delayMillis(0));
+        assertEquals(20, policy.delayMillis(1));
+        assertEquals(40, policy.delayMillis(2));
+        assertEquals(640, policy.delayMillis(6));
+        assertEquals(1000, policy.delayMillis(7));
+        // no overflow of the shift for large retries
+        assertEquals(1000, policy.delayMillis(100));
+    }
+
+    @Test
+    void jitterStaysBelowTheExponentialPause() {
+        RetryPolicy policy = new RetryPolicy(10, RetryPolicy.Backoff.JITTERED, 10, 1000);
+        long sum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long delay = policy.delayMillis(2);
+            assertTrue(delay >= 0 && delay <= 40, "delay " + delay);
+            sum += delay;
+        }
+        // full jitter, the mean is half of the exponential pause
+        assertEquals(20, sum / 10_000.0, 1.5);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.delayMillis(50) <= 1000);
+        }
+    }
+
+    @Test
+    void fromArguments() {
+        RetryPolicy defaults = RetryPolicy.fromArguments(new Arguments(new String[0]), 2);
+        assertEquals(2, defaults.getMaxRetries());
+        assertTrue(defaults.delayMillis(0) <= 10);
+
+        RetryPolicy exponential = RetryPolicy.fromArguments(new Arguments(new String[]{"retries=5", "backoff=exponential",
+                "backoffBase=3", "backoffMax=10"}), 0);
+        assertEquals(5, exponential.getMaxRetries());
+        assertEquals(3, exponential.delayMillis(0));
+        assertEquals(6, exponential.delayMillis(1));
+        assertEquals(10, exponential.delayMillis(2));
+
+        RetryPolicy none = RetryPolicy.fromArguments(new Arguments(new String[]{"backoff=none"}), 1);
+        assertEquals(0, none.delayMillis(3));
+    }
+}
@@ -0,0 +1,77 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotIndexTest {
+
+    @Test
+    void sequentialSnapshotsDoNotOverlap() {
+        SnapshotIndex index = new SnapshotIndex();
+        SnapshotIndex.Entry first = index.register("a", index.beginCreation());
+        SnapshotIndex.Entry second = index.register("b", index.beginCreation());
+        assertFalse(first.overlaps(second));
+        assertFalse(second.overlaps(first));
+        assertEquals(List.of("b"), names(index.newerThan("a")));
+        assertTrue(index.newerThan("b").isEmpty());
+    }
+
+    @Test
+    void parallelCreationsOverlapAndAreNewerBothWays() {
+        SnapshotIndex index = new SnapshotIndex();
+        long startA = index.beginCreation();
+        long startB = index.beginCreation();
+        SnapshotIndex.Entry a = index.register("a", startA);
+        SnapshotIndex.Entry b = index.register("b", startB);
+        assertTrue(a.overlaps(b));
+        assertTrue(b.overlaps(a));
+        // a rollback -r to either one might remove the other
+        assertEquals(List.of("b"), names(index.newerThan("a")));
+        assertEquals(List.of("a"), names(index.newerThan("b")));
+    }
+
+    @Test
+    void newerThanKeepsTheCreationOrderAndSkipsOlderOnes() {
+        SnapshotIndex index = new SnapshotIndex();
+        index.register("old", index.beginCreation());
+        index.register("target", index.beginCreation());
+        index.register("newer1", index.beginCreation());
+        index.register("newer2", index.beginCreation());
+        assertEquals(List.of("newer1", "newer2"), names(index.newerThan("target")));
+    }
+
+    @Test
+    void unknownAndRemovedSnapshots() {
+        SnapshotIndex index = new SnapshotIndex();
+        index.register("a", index.beginCreation());
+        index.register("b", index.beginCreation());
+        assertTrue(index.newerThan("missing").isEmpty());
+        index.remove("b");
+        assertFalse(index.contains("b"));
+        assertTrue(index.newerThan("a").isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void oldestStartTickFollowsTheFirstSnapshot() {
+        SnapshotIndex index = new SnapshotIndex();
+        long start = index.beginCreation();
+        index.register("a", start);
+        index.register("b", index.beginCreation());
+        assertEquals(start, index.oldestStartTick());
+        index.remove("a");
+        assertEquals(index.get("b").getStartTick(), index.oldestStartTick());
+        index.remove("b");
+        long tick = index.tick();
+        assertEquals(tick, index.oldestStartTick());
+    }
+
+    private static List<String> names(List<SnapshotIndex.Entry> entries) {
+        return entries.stream().map(SnapshotIndex.Entry::getNameOfSnapshot).toList();
+    }
+}
@@ -0,0 +1,192 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * a crash is simulated by opening the journal a second time without closing the first one, the records are in the
+ * page cache already
+ */
+class TransactionJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void committedTransactionsLeaveNothingToRecover() {
+        Path path = directory.resolve("journal");
+        TransactionJournal journal = new TransactionJournal(path);
+        TransactionInformation transaction = transaction("T1", "file1.txt");
+        journal.logSnapshot(transaction.getSnapshotName());
+        journal.logBegin(transaction);
+        journal.logAppend(transaction.getId(), "file1.txt", 10);
+        journal.logCommit(transaction.getId());
+        journal.logDestroy(transaction.getSnapshotName());
+
+        assertTrue(new TransactionJournal(path).getRecovery().isEmpty());
+    }
+
+    @Test
+    void crashRecoversOpenTransactionsAppendsAndSnapshots() {
+        Path path = directory.resolve("journal");
+        TransactionJournal journal = new TransactionJournal(path);
+        TransactionInformation appending = transaction("T1", "file1.txt");
+        TransactionInformation restoring = transaction("T2", "file2.txt");
+        TransactionInformation done = transaction("T3", "file3.txt");
+        for (TransactionInformation transaction : List.of(appending, restoring, done)) {
+            journal.logSnapshot(transaction.getSnapshotName());
+            journal.logBegin(transaction);
+        }
+        journal.logAppend(appending.getId(), "file1.txt", 42);
+        journal.logRestore(restoring);
+        journal.logAppend(done.getId(), "file3.txt", 7);
+        journal.logCommit(done.getId());
+        journal.logDestroy(done.getSnapshotName());
+
+        TransactionJournal.Recovery recovery = new TransactionJournal(path).getRecovery();
+        assertEquals(Set.of("T1", "T2"), Set.copyOf(recovery.transactions().stream().map(TransactionInformation::getThreadName).toList()));
+        assertEquals(Map.of("file1.txt", 42L), recovery.unfinishedAppends());
+        assertEquals(Map.of("file2.txt", restoring.getSnapshotName()), recovery.unfinishedRestores());
+        assertEquals(Set.of(appending.getSnapshotName(), restoring.getSnapshotName()), recovery.orphanedSnapshots());
+    }
+
+    @Test
+    void abortEndsTheTransactionOnce() {
+        Path path = directory.resolve("journal");
+        TransactionJournal journal = new TransactionJournal(path);
+        TransactionInformation transaction = transaction("T1", "file1.txt");
+        journal.logBegin(transaction);
+        journal.logAbort(transaction.getId());
+        journal.logAbort(transaction.getId());
+
+        TransactionJournal.Recovery recovery = new TransactionJournal(path).getRecovery();
+        assertTrue(recovery.isEmpty());
+    }
+
+    @Test
+    void longRunningTransactionDoesNotLetTheJournalGrow() {
+        Path path = directory.resolve("journal");
+        TransactionJournal journal = new TransactionJournal(path);
+        TransactionInformation longRunning = transaction("Long", "long.txt");
+        journal.logSnapshot(longRunning.getSnapshotName());
+        journal.logBegin(longRunning);
+        for (int i = 0; i < 20_000; i++) {
+            TransactionInformation transaction = transaction("T" + i, "file" + (i % 10) + ".txt");
+            journal.logSnapshot(transaction.getSnapshotName());
+            journal.logBegin(transaction);
+            journal.logAppend(transaction.getId(), transaction.getFileName(), i);
+            journal.logCommit(transaction.getId());
+            journal.logDestroy(transaction.getSnapshotName());
+        }
+
+        TransactionJournal.Recovery recovery = new TransactionJournal(path).getRecovery();
+        // compacted every COMPACT_AFTER records, only the long one and what came after the last compaction is replayed
+        assertTrue(recovery.records() < 2000, "replayed " + recovery.records() + " records");
+        assertEquals(List.of("Long"), recovery.transactions().stream().map(TransactionInformation::getThreadName).toList());
+        assertEquals(Set.of(longRunning.getSnapshotName()), recovery.orphanedSnapshots());
+    }
+
+    @Test
+    void clearAndCloseDeleteTheFile() {
+        Path path = directory.resolve("journal");
+        TransactionJournal journal = new TransactionJournal(path);
+        TransactionInformation transaction = transaction("T1", "file1.txt");
+        journal.logBegin(transaction);
+        journal.close();
+        assertTrue(Files.exists(path), "an open transaction keeps the journal");
+
+        TransactionJournal reopened = new TransactionJournal(path);
+        assertFalse(reopened.getRecovery().isEmpty());
+        reopened.clear();
+        reopened.close();
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    void concurrentWritersAreAllReplayed() throws InterruptedException {
+        Path path = directory.resolve("journal");
+        TransactionJournal journal = new TransactionJournal(path);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            String threadName = "Writer-" + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    TransactionInformation transaction = transaction(threadName + "-" + i, threadName + ".txt");
+                    journal.logBegin(transaction);
+                    if (i % 2 == 0) {
+                        journal.logCommit(transaction.getId());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 250, new TransactionJournal(path).getRecovery().transactions().size());
+    }
+
+    @Test
+    void snapshotOfTheNextTransactionSurvivesTheBatchedDestroyOfTheLastOne() {
+        Path path = directory.resolve("journal");
+        BatchingSnapshotBackend backend = new BatchingSnapshotBackend(
+                new DirectoryCopyBackend(directory.resolve("fs") + "/"), 100_000, 64);
+        ZFSMapper mapper = new ZFSMapper(backend);
+        mapper.setTransactionJournal(new TransactionJournal(path));
+        mapper.createFileWithContent("a.txt", "a");
+
+        TransactionInformation first = mapper.notifyWrite("T1", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(first, "first"));
+        // the destroy of the first snapshot is still queued when the same thread starts on the same file again
+        TransactionInformation second = mapper.notifyWrite("T1", "a.txt");
+        backend.flush();
+
+        TransactionJournal.Recovery recovery = new TransactionJournal(path).getRecovery();
+        assertEquals(Set.of(second.getSnapshotName()), recovery.orphanedSnapshots());
+        assertEquals(Set.of(second.getSnapshotName()), backend.getAllSnapshots());
+    }
+
+    @Test
+    void undoLogTransactionsAreOnlyRecordedInTheTransactionJournal() throws Exception {
+        Path path = directory.resolve("journal");
+        Path undoPath = directory.resolve("undo");
+        Path root = directory.resolve("fs");
+        ZFSMapper mapper = new ZFSMapper(new DirectoryCopyBackend(root + "/"));
+        mapper.createFileWithContent("a.txt", "a");
+        mapper.setTransactionJournal(new TransactionJournal(path));
+        mapper.setUndoJournal(new UndoJournal(undoPath));
+        mapper.setTransactionMode(TransactionMode.UNDO_LOG);
+
+        TransactionInformation transaction = mapper.notifyWrite("T1", "a.txt");
+        assertEquals(Outcome.COMMITTED, mapper.appendToFile(transaction, "T1"));
+        assertEquals(0, Files.size(undoPath));
+
+        // a crash in the middle of the next append, the transaction journal has its record
+        long offset = Files.size(root.resolve("a.txt"));
+        TransactionJournal crashed = new TransactionJournal(path);
+        TransactionInformation unfinished = transaction("T2", "a.txt");
+        crashed.logBegin(unfinished);
+        crashed.logAppend(unfinished.getId(), "a.txt", offset);
+        Files.writeString(root.resolve("a.txt"), "half", StandardOpenOption.APPEND);
+
+        ZFSMapper restarted = new ZFSMapper(new DirectoryCopyBackend(root + "/"));
+        restarted.setUndoJournal(new UndoJournal(undoPath));
+        restarted.setTransactionJournal(new TransactionJournal(path));
+        assertEquals(List.of("a", "T1"), Files.readAllLines(root.resolve("a.txt")));
+    }
+
+    private static TransactionInformation transaction(String threadName, String fileName) {
+        return new TransactionInformation(threadName, fileName, threadName + "-" + fileName, 0, null);
+    }
+}